@@ -0,0 +1,136 @@
+package com.auxilii.msgparser;
+
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.poi.poifs.filesystem.DocumentEntry;
+
+import com.auxilii.msgparser.rtf.RTF2HTMLConverter;
+import com.auxilii.msgparser.rtf.SimpleRTF2HTMLConverter;
+import com.auxilii.msgparser.rtf.StreamingRTF2HTMLConverter;
+
+import net.kolola.msgparsercli.bench.BenchmarkRunner;
+import net.kolola.msgparsercli.bench.Fixtures;
+
+/**
+ * Benchmarks of the parser: complete parses per message size class,
+ * decoding of the properties stream and of UTF-16 (0x1f) streams,
+ * {@link Message#setProperty(MessageProperty)} and the RTF converters.
+ * They live in this package to reach the protected decoding methods.
+ */
+public class MsgParserBenchmarks {
+
+	/**
+	 * Registers all benchmarks.
+	 * 
+	 * @param files Additional .msg files to benchmark parseMsg with.
+	 */
+	public static void register(BenchmarkRunner runner, String[] files) throws Exception {
+		for(Fixtures.Size size : Fixtures.Size.values())
+			registerParse(runner, size.name().toLowerCase(), Fixtures.message(size));
+		for(String f : files)
+			registerParse(runner, new File(f).getName(), new File(f));
+
+		final MsgParser msgp = new MsgParser();
+
+		final DocumentEntry props = Fixtures.stream("__properties_version1.0", Fixtures.properties(64));
+		runner.add("propertiesStream.64", new BenchmarkRunner.Op() {
+			public Object run() throws Exception {
+				return msgp.getMessagePropertiesFromPropertiesStream(props, null, null);
+			}
+		});
+
+		Random random = new Random(1);
+		final DocumentEntry text = Fixtures.stream("__substg1.0_1000001F", Fixtures.utf16(Fixtures.text(random, 16 * 1024)));
+		final FieldInformation info = new FieldInformation("1000", 0x1f);
+		runner.add("getData.utf16.16k", new BenchmarkRunner.Op() {
+			public Object run() throws Exception {
+				return msgp.getData(text, info);
+			}
+		});
+
+		final List<MessageProperty> properties = new ArrayList<MessageProperty>();
+		properties.add(new MessageProperty("0037", "Subject", 14));
+		properties.add(new MessageProperty("0042", "Alice Example", 26));
+		properties.add(new MessageProperty("0065", "alice@example.com", 34));
+		properties.add(new MessageProperty("0c1f", "alice@example.com", 34));
+		properties.add(new MessageProperty("0e04", "Bob Example", 22));
+		properties.add(new MessageProperty("001a", "IPM.Note", 16));
+		properties.add(new MessageProperty("1000", Fixtures.text(random, 4096), 8192));
+		properties.add(new MessageProperty("1013", "<html><body>" + Fixtures.text(random, 4096) + "</body></html>", 8218));
+		properties.add(new MessageProperty("007d", "Received: from example.com\r\nSubject: Subject\r\n", 92));
+		runner.add("setProperty", new BenchmarkRunner.Op() {
+			public Object run() throws Exception {
+				Message msg = new Message();
+				for(MessageProperty p : properties)
+					msg.setProperty(p);
+				return msg;
+			}
+		});
+
+		final String rtf = rtf(random, 32 * 1024);
+		final String largeRtf = rtf(random, 1024 * 1024);
+		final SimpleRTF2HTMLConverter simple = new SimpleRTF2HTMLConverter();
+		registerConverter(runner, "simple.32k", simple, rtf);
+		registerConverter(runner, "streaming.32k", new StreamingRTF2HTMLConverter(), rtf);
+		// several seconds per conversion, so only a few iterations
+		runner.add("rtf2html.simple.1m", 1, 3, new BenchmarkRunner.Op() {
+			public Object run() throws Exception {
+				return simple.rtf2html(largeRtf);
+			}
+		});
+		registerConverter(runner, "streaming.1m", new StreamingRTF2HTMLConverter(), largeRtf);
+	}
+
+	private static void registerConverter(BenchmarkRunner runner, String name, final RTF2HTMLConverter converter, final String rtf) {
+		runner.add("rtf2html." + name, new BenchmarkRunner.Op() {
+			public Object run() throws Exception {
+				return converter.rtf2html(rtf);
+			}
+		});
+	}
+
+	private static void registerParse(BenchmarkRunner runner, String name, final File file) {
+		final MsgParser eager = new MsgParser();
+		runner.add("parseMsg." + name, new BenchmarkRunner.Op() {
+			public Object run() throws Exception {
+				Message msg = eager.parseMsg(file);
+				msg.close();
+				return msg;
+			}
+		});
+
+		final MsgParser lazy = new MsgParser();
+		lazy.setLazyLoading(true);
+		runner.add("parseMsg." + name + ".lazy", new BenchmarkRunner.Op() {
+			public Object run() throws Exception {
+				Message msg = lazy.parseMsg(file);
+				msg.close();
+				return msg;
+			}
+		});
+	}
+
+	/**
+	 * An RTF document with encapsulated HTML as Outlook writes it, with
+	 * roughly the given number of characters of text.
+	 */
+	private static String rtf(Random random, int chars) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\\rtf1\\ansi\\ansicpg1252\\fromhtml1 \\deff0{\\fonttbl{\\f0\\fswiss Arial;}}\r\n");
+		sb.append("{\\*\\htmltag19 <html>}{\\*\\htmltag50 <body>}\r\n");
+		int paragraph = 0;
+		while(sb.length() < chars)
+		{
+			sb.append("{\\*\\htmltag64 <p>}\\htmlrtf {\\htmlrtf0 ");
+			sb.append(Fixtures.text(random, 200).replace("\n", " "));
+			sb.append(" caf\\'e9 \\{").append(paragraph++).append("\\}");
+			sb.append("\\htmlrtf \\par }\\htmlrtf0{\\*\\htmltag72 </p>}\r\n");
+		}
+		sb.append("{\\*\\htmltag58 </body>}{\\*\\htmltag27 </html>}}");
+		return sb.toString();
+	}
+}
@@ -0,0 +1,47 @@
+package net.kolola.msgparsercli;
+
+
+import java.io.OutputStream;
+import java.io.Writer;
+
+import com.auxilii.msgparser.Message;
+import com.auxilii.msgparser.MsgParser;
+
+import net.kolola.msgparsercli.bench.BenchmarkRunner;
+import net.kolola.msgparsercli.bench.Fixtures;
+
+/**
+ * Benchmarks of the -i output: collecting the info of a parsed
+ * message and writing it as JSON and as CBOR.
+ */
+public class CliBenchmarks {
+
+	public static void register(BenchmarkRunner runner) throws Exception {
+		// parsed eagerly once, only the output is measured
+		final Message msg = new MsgParser().parseMsg(Fixtures.message(Fixtures.Size.MEDIUM));
+		final OutputStream discard = new OutputStream() {
+			public void write(int b) {
+			}
+			public void write(byte[] b, int off, int len) {
+			}
+		};
+
+		runner.add("info.json", new BenchmarkRunner.Op() {
+			public Object run() throws Exception {
+				MsgParseCLI.CountingOutputStream counter = new MsgParseCLI.CountingOutputStream(discard);
+				Writer out = MsgParseCLI.stdoutWriter(counter);
+				new JsonWriter(out, true).value(MsgParseCLI.getInfo(msg));
+				out.flush();
+				return counter.getCount();
+			}
+		});
+
+		runner.add("info.cbor", new BenchmarkRunner.Op() {
+			public Object run() throws Exception {
+				MsgParseCLI.CountingOutputStream counter = new MsgParseCLI.CountingOutputStream(discard);
+				MsgParseCLI.writeCborInfo(msg, new CborWriter(counter));
+				return counter.getCount();
+			}
+		});
+	}
+}
@@ -0,0 +1,155 @@
+package net.kolola.msgparsercli.bench;
+
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import com.auxilii.msgparser.MsgParserBenchmarks;
+
+import net.kolola.msgparsercli.CliBenchmarks;
+
+/**
+ * Minimal benchmark harness in the spirit of JMH: every benchmark runs a
+ * number of timed warmup iterations followed by measured iterations on the
+ * current thread. It reports the mean throughput with its standard deviation
+ * and the bytes allocated per operation (where the JVM can tell).
+ * <br /><br />
+ * Settings are read from system properties: bench.warmup (iterations,
+ * default 3), bench.iterations (default 5), bench.time (milliseconds per
+ * iteration, default 1000) and bench.filter (a regular expression the
+ * benchmark names have to contain).
+ * <br /><br />
+ * Usage: java -cp ... net.kolola.msgparsercli.bench.BenchmarkRunner [file.msg ...]
+ * <br />
+ * Given .msg files are benchmarked with parseMsg in addition to the
+ * generated size classes.
+ */
+public class BenchmarkRunner {
+
+	/**
+	 * One operation of a benchmark. The result is consumed by the
+	 * harness so the JIT cannot remove the work.
+	 */
+	public interface Op {
+		Object run() throws Exception;
+	}
+
+	protected static class Benchmark {
+		String name;
+		Op op;
+		int warmup;
+		int iterations;
+	}
+
+	protected final List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+	protected final int warmup = Integer.getInteger("bench.warmup", 3);
+	protected final int iterations = Integer.getInteger("bench.iterations", 5);
+	protected final long time = Long.getLong("bench.time", 1000);
+	protected final Pattern filter = Pattern.compile(System.getProperty("bench.filter", ""));
+
+	/**
+	 * Sink for the results of all operations
+	 */
+	private int sink = 0;
+
+	public void add(String name, Op op) {
+		add(name, warmup, iterations, op);
+	}
+
+	/**
+	 * Adds a benchmark that runs at most the given number of warmup and
+	 * measured iterations, for operations that take seconds each.
+	 */
+	public void add(String name, int maxWarmup, int maxIterations, Op op) {
+		if(!filter.matcher(name).find())
+			return;
+
+		Benchmark b = new Benchmark();
+		b.name = name;
+		b.op = op;
+		b.warmup = Math.min(warmup, maxWarmup);
+		b.iterations = Math.max(1, Math.min(iterations, maxIterations));
+		benchmarks.add(b);
+	}
+
+	/**
+	 * Runs all benchmarks and prints one line per benchmark.
+	 */
+	public void run(PrintStream out) throws Exception {
+		out.println(String.format("%-40s %14s %12s %14s", "Benchmark", "ops/s", "error", "B/op"));
+		for(Benchmark b : benchmarks)
+		{
+			for(int i = 0; i < b.warmup; i++)
+				iteration(b.op);
+
+			double[] throughput = new double[b.iterations];
+			long ops = 0;
+			long allocated = 0;
+			for(int i = 0; i < b.iterations; i++)
+			{
+				long before = allocatedBytes();
+				long start = System.nanoTime();
+				long n = iteration(b.op);
+				long nanos = System.nanoTime() - start;
+				allocated += allocatedBytes() - before;
+				ops += n;
+				throughput[i] = n * 1e9 / nanos;
+			}
+
+			double mean = 0;
+			for(double t : throughput)
+				mean += t / b.iterations;
+			double variance = 0;
+			for(double t : throughput)
+				variance += (t - mean) * (t - mean) / Math.max(1, b.iterations - 1);
+
+			String perOp = allocatedBytes() < 0 ? "n/a" : String.valueOf(allocated / ops);
+			out.println(String.format("%-40s %14.3f %12.3f %14s", b.name, mean, Math.sqrt(variance), perOp));
+		}
+		if(sink == 42)
+			out.println();
+	}
+
+	/**
+	 * Runs the operation for the configured time.
+	 * 
+	 * @return The number of operations.
+	 */
+	private long iteration(Op op) throws Exception {
+		long end = System.nanoTime() + time * 1000000L;
+		long n = 0;
+		do
+		{
+			Object result = op.run();
+			sink ^= System.identityHashCode(result);
+			n++;
+		}
+		while(System.nanoTime() < end);
+		return n;
+	}
+
+	/**
+	 * @return The bytes allocated by the current thread so far
+	 *  or -1 if the JVM cannot tell.
+	 */
+	protected static long allocatedBytes() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if(bean instanceof com.sun.management.ThreadMXBean)
+		{
+			com.sun.management.ThreadMXBean sun = (com.sun.management.ThreadMXBean) bean;
+			if(sun.isThreadAllocatedMemorySupported() && sun.isThreadAllocatedMemoryEnabled())
+				return sun.getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+
+	public static void main(String[] args) throws Exception {
+		BenchmarkRunner runner = new BenchmarkRunner();
+		MsgParserBenchmarks.register(runner, args);
+		CliBenchmarks.register(runner);
+		runner.run(System.out);
+	}
+}
@@ -0,0 +1,106 @@
+package net.kolola.msgparsercli.bench;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.apache.poi.poifs.filesystem.DocumentEntry;
+import org.apache.poi.poifs.filesystem.POIFSFileSystem;
+
+/**
+ * Builds the inputs of the benchmarks: .msg files of different size
+ * classes (see {@link MsgGenerator}) and single streams. The content is
+ * pseudo-random with a fixed seed, so every run measures the same data.
+ */
+public class Fixtures {
+
+	/**
+	 * A message size class: length of the body, attachments and nesting.
+	 */
+	public enum Size {
+		SMALL(2 * 1024, 0, 0, 0),
+		MEDIUM(64 * 1024, 4, 64 * 1024, 1),
+		LARGE(256 * 1024, 4, 2 * 1024 * 1024, 1);
+
+		public final int bodyChars;
+		public final int attachments;
+		public final int attachmentBytes;
+		public final int depth;
+
+		Size(int bodyChars, int attachments, int attachmentBytes, int depth) {
+			this.bodyChars = bodyChars;
+			this.attachments = attachments;
+			this.attachmentBytes = attachmentBytes;
+			this.depth = depth;
+		}
+	}
+
+	/**
+	 * Writes a message of the given size class (Unicode, with an HTML
+	 * body) to a temporary file that is deleted when the JVM exits.
+	 */
+	public static File message(Size size) throws IOException {
+		MsgGenerator gen = new MsgGenerator();
+		gen.setBodyChars(size.bodyChars);
+		gen.setAttachments(size.attachments);
+		gen.setAttachmentSize(size.attachmentBytes);
+		gen.setDepth(size.depth, true);
+		gen.setBodyType(MsgGenerator.BodyType.HTML);
+		gen.setUnicode(true);
+
+		File file = File.createTempFile("bench-" + size.name().toLowerCase(), ".msg");
+		file.deleteOnExit();
+		gen.write(size.ordinal(), file);
+		return file;
+	}
+
+	/**
+	 * Creates a stream in an in-memory container and returns its entry.
+	 */
+	public static DocumentEntry stream(String name, byte[] content) throws IOException {
+		return new POIFSFileSystem().getRoot().createDocument(name, new ByteArrayInputStream(content));
+	}
+
+	/**
+	 * A properties stream of a top level message with the given
+	 * number of fixed length (PT_LONG) records.
+	 */
+	public static byte[] properties(int records) {
+		ByteBuffer bb = ByteBuffer.allocate(32 + 16 * records).order(ByteOrder.LITTLE_ENDIAN);
+		bb.put(new byte[32]);
+		for(int i = 0; i < records; i++)
+		{
+			bb.putInt((0x6000 + i) << 16 | 0x0003);
+			bb.putInt(6);
+			bb.putInt(i);
+			bb.putInt(0);
+		}
+		return bb.array();
+	}
+
+	/**
+	 * Text made of words of random lowercase letters.
+	 */
+	public static String text(Random random, int chars) {
+		StringBuilder sb = new StringBuilder(chars);
+		while(sb.length() < chars)
+		{
+			if(sb.length() > 0)
+				sb.append(random.nextInt(12) == 0 ? '\n' : ' ');
+			int len = 1 + random.nextInt(10);
+			for(int i = 0; i < len; i++)
+				sb.append((char) ('a' + random.nextInt(26)));
+		}
+		sb.setLength(chars);
+		return sb.toString();
+	}
+
+	public static byte[] utf16(String text) {
+		return text.getBytes(StandardCharsets.UTF_16LE);
+	}
+}
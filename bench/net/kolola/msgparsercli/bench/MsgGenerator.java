@@ -0,0 +1,596 @@
+package net.kolola.msgparsercli.bench;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+
+import org.apache.poi.poifs.filesystem.DirectoryEntry;
+import org.apache.poi.poifs.filesystem.POIFSFileSystem;
+
+/**
+ * Writes synthetic Outlook .msg files (MS-OXMSG) for benchmarks and
+ * scale tests, so that performance work does not depend on real mail.
+ * <br /><br />
+ * The output only depends on the seed and the settings: file number i
+ * of a corpus is always the same. The number of extra properties,
+ * recipients and attachments and the attachment size are fixed by the
+ * settings; the body type (text, HTML or compressed RTF), the string
+ * encoding (Unicode or ANSI) and the nesting depth of attached messages
+ * vary per file unless they are fixed as well.
+ * <br /><br />
+ * Usage: java -cp ... net.kolola.msgparsercli.bench.MsgGenerator -o dir [-n count] [--seed n] ...
+ * (run without -o for all options)
+ */
+public class MsgGenerator {
+
+	public enum BodyType {
+		TEXT, HTML, RTF
+	}
+
+	private static final Charset CP1252 = Charset.forName("windows-1252");
+
+	/**
+	 * 100ns intervals between 1601-01-01 and 1970-01-01
+	 */
+	private static final long FILETIME_EPOCH = 116444736000000000L;
+
+	private static final String[] WORDS_UNICODE = { "caf\u00e9", "na\u00efve", "\u00fcber", "\u03a9mega", "\u4e2d\u6587", "\u0436\u0443\u0440\u043d\u0430\u043b", "\u20ac" };
+	private static final String[] WORDS_ANSI = { "caf\u00e9", "na\u00efve", "\u00fcber", "r\u00e9sum\u00e9", "\u00a3" };
+
+	protected long seed = 0;
+	protected int properties = 16;
+	protected int recipients = 2;
+	protected int attachments = 2;
+	protected int attachmentSize = 64 * 1024;
+	protected int bodyChars = 4 * 1024;
+	protected int maxDepth = 2;
+	protected boolean fixedDepth = false;
+	protected BodyType bodyType = null;
+	protected Boolean unicode = null;
+
+	/**
+	 * Per file state
+	 */
+	protected static class Context {
+		Random random;
+		boolean unicode;
+	}
+
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * @param properties The number of extra (custom) properties per message,
+	 *  every other one is a fixed length one in the properties stream.
+	 */
+	public void setProperties(int properties) {
+		this.properties = properties;
+	}
+
+	public void setRecipients(int recipients) {
+		this.recipients = recipients;
+	}
+
+	/**
+	 * @param attachments The number of file attachments per message.
+	 */
+	public void setAttachments(int attachments) {
+		this.attachments = attachments;
+	}
+
+	public void setAttachmentSize(int attachmentSize) {
+		this.attachmentSize = attachmentSize;
+	}
+
+	/**
+	 * @param bodyChars The length of the body text.
+	 */
+	public void setBodyChars(int bodyChars) {
+		this.bodyChars = bodyChars;
+	}
+
+	/**
+	 * @param depth The depth of nested attached messages, each level has one.
+	 * @param fixed Whether all files get this depth, otherwise it is chosen
+	 *  from 0 to the given depth per file.
+	 */
+	public void setDepth(int depth, boolean fixed) {
+		this.maxDepth = depth;
+		this.fixedDepth = fixed;
+	}
+
+	/**
+	 * @param bodyType The body of all files or null to vary it per file.
+	 */
+	public void setBodyType(BodyType bodyType) {
+		this.bodyType = bodyType;
+	}
+
+	/**
+	 * @param unicode Whether strings are stored as Unicode (true) or ANSI
+	 *  (false) or null to vary it per file.
+	 */
+	public void setUnicode(Boolean unicode) {
+		this.unicode = unicode;
+	}
+
+	/**
+	 * Writes file number index of the corpus.
+	 */
+	public void write(int index, File file) throws IOException {
+		Context ctx = new Context();
+		ctx.random = new Random(seed * 1000003L + index);
+		ctx.unicode = unicode != null ? unicode : ctx.random.nextBoolean();
+		int depth = fixedDepth ? maxDepth : ctx.random.nextInt(maxDepth + 1);
+		BodyType body = bodyType != null ? bodyType : BodyType.values()[ctx.random.nextInt(BodyType.values().length)];
+
+		POIFSFileSystem fs = new POIFSFileSystem();
+		DirectoryEntry root = fs.getRoot();
+		writeMessage(root, ctx, body, depth, true, "Message " + index);
+
+		DirectoryEntry nameid = root.createDirectory("__nameid_version1.0");
+		document(nameid, "__substg1.0_00020102", new byte[0]);
+		document(nameid, "__substg1.0_00030102", new byte[0]);
+		document(nameid, "__substg1.0_00040102", new byte[0]);
+
+		OutputStream out = new FileOutputStream(file);
+		try
+		{
+			fs.writeFilesystem(out);
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	/**
+	 * Writes the streams of a (top level or embedded) message into the directory.
+	 */
+	protected void writeMessage(DirectoryEntry dir, Context ctx, BodyType body, int depth, boolean topLevel, String subject) throws IOException {
+		PropertyStream props = new PropertyStream();
+		Random random = ctx.random;
+
+		string(dir, props, ctx, 0x001a, "IPM.Note");
+		string(dir, props, ctx, 0x0037, subject + " " + words(ctx, 4));
+		string(dir, props, ctx, 0x0e1d, subject);
+		String sender = name(random);
+		string(dir, props, ctx, 0x0042, sender);
+		string(dir, props, ctx, 0x0c1a, sender);
+		string(dir, props, ctx, 0x0065, email(sender));
+		string(dir, props, ctx, 0x0c1f, email(sender));
+
+		// recipients, every third one is a CC
+		List<String> to = new ArrayList<String>();
+		List<String> cc = new ArrayList<String>();
+		for(int i = 0; i < recipients; i++)
+		{
+			String name = name(random);
+			int type = i % 3 == 2 ? 2 : 1;
+			(type == 1 ? to : cc).add(name);
+
+			DirectoryEntry rdir = dir.createDirectory(String.format("__recip_version1.0_#%08X", i));
+			PropertyStream rprops = new PropertyStream();
+			string(rdir, rprops, ctx, 0x3001, name);
+			string(rdir, rprops, ctx, 0x3003, email(name));
+			string(rdir, rprops, ctx, 0x39fe, email(name));
+			rprops.add(0x0c150003, type);
+			rprops.add(0x30000003, i);
+			document(rdir, "__properties_version1.0", rprops.toBytes(8, null));
+		}
+		string(dir, props, ctx, 0x0e04, join(to));
+		string(dir, props, ctx, 0x0e03, join(cc));
+
+		// body
+		String text = text(ctx, bodyChars);
+		string(dir, props, ctx, 0x1000, text);
+		if(body == BodyType.HTML)
+		{
+			binary(dir, props, 0x1013, html(text).getBytes(CP1252));
+		}
+		else if(body == BodyType.RTF)
+		{
+			byte[] rtf = rtf(html(text)).getBytes(StandardCharsets.US_ASCII);
+			binary(dir, props, 0x1009, compressRtf(rtf));
+			props.add(0x0e1f000b, 1);
+		}
+
+		// dates and flags, plus the extra properties
+		long now = 1500000000000L + (long) random.nextInt(100000000) * 1000L;
+		props.addTime(0x00390040, now);
+		props.addTime(0x0e060040, now + 5000);
+		props.addTime(0x30070040, now + 6000);
+		props.addTime(0x30080040, now + 7000);
+		props.add(0x0e070003, 1);
+		for(int i = 0; i < properties; i++)
+		{
+			if(i % 2 == 0)
+				props.add((0x6000 + i) << 16 | 0x0003, random.nextInt());
+			else
+				string(dir, props, ctx, 0x6800 + i, text(ctx, 20 + random.nextInt(200)));
+		}
+
+		// attachments, the last one may be a nested message
+		int count = attachments + (depth > 0 ? 1 : 0);
+		for(int i = 0; i < count; i++)
+		{
+			DirectoryEntry adir = dir.createDirectory(String.format("__attach_version1.0_#%08X", i));
+			PropertyStream aprops = new PropertyStream();
+			aprops.add(0x0e210003, i);
+			aprops.add(0x370b0003, -1);
+
+			if(i < attachments)
+			{
+				String ext = i % 2 == 0 ? ".bin" : ".txt";
+				string(adir, aprops, ctx, 0x3704, "ATT" + i + ext);
+				string(adir, aprops, ctx, 0x3707, "attachment " + i + " " + words(ctx, 3) + ext);
+				string(adir, aprops, ctx, 0x3703, ext);
+				string(adir, aprops, ctx, 0x370e, i % 2 == 0 ? "application/octet-stream" : "text/plain");
+				byte[] data = new byte[attachmentSize];
+				random.nextBytes(data);
+				binary(adir, aprops, 0x3701, data);
+				aprops.add(0x37050003, 1);
+				aprops.add(0x0e200003, attachmentSize);
+			}
+			else
+			{
+				string(adir, aprops, ctx, 0x3001, "Attached message");
+				aprops.add(0x37050003, 5);
+				DirectoryEntry embedded = adir.createDirectory("__substg1.0_3701000D");
+				writeMessage(embedded, ctx, body, depth - 1, false, "Nested " + depth);
+			}
+			document(adir, "__properties_version1.0", aprops.toBytes(8, null));
+		}
+
+		// the header of the properties stream holds the counts
+		ByteBuffer header = ByteBuffer.allocate(topLevel ? 32 : 24).order(ByteOrder.LITTLE_ENDIAN);
+		header.putLong(0);
+		header.putInt(recipients);
+		header.putInt(count);
+		header.putInt(recipients);
+		header.putInt(count);
+		document(dir, "__properties_version1.0", props.toBytes(0, header.array()));
+	}
+
+	/**
+	 * Records of a properties stream
+	 */
+	protected static class PropertyStream {
+		ByteArrayOutputStream records = new ByteArrayOutputStream();
+
+		void add(int tag, long value) {
+			ByteBuffer bb = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+			bb.putInt(tag);
+			bb.putInt(0x6);
+			bb.putLong(value);
+			records.write(bb.array(), 0, 16);
+		}
+
+		void addTime(int tag, long millis) {
+			add(tag, millis * 10000L + FILETIME_EPOCH);
+		}
+
+		/**
+		 * @param reserved Length of the zero header or 0 if the given header is used.
+		 */
+		byte[] toBytes(int reserved, byte[] header) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			if(header != null)
+				out.write(header, 0, header.length);
+			else
+				out.write(new byte[reserved], 0, reserved);
+			out.write(records.toByteArray(), 0, records.size());
+			return out.toByteArray();
+		}
+	}
+
+	/**
+	 * Writes a string property in the encoding of the file, its size
+	 * is listed in the properties stream.
+	 */
+	private static void string(DirectoryEntry dir, PropertyStream props, Context ctx, int clazz, String value) throws IOException {
+		int type = ctx.unicode ? 0x001f : 0x001e;
+		byte[] bytes = value.getBytes(ctx.unicode ? StandardCharsets.UTF_16LE : StandardCharsets.ISO_8859_1);
+		document(dir, String.format("__substg1.0_%04X%04X", clazz, type), bytes);
+		props.add(clazz << 16 | type, bytes.length + (ctx.unicode ? 2 : 1));
+	}
+
+	private static void binary(DirectoryEntry dir, PropertyStream props, int clazz, byte[] value) throws IOException {
+		document(dir, String.format("__substg1.0_%04X0102", clazz), value);
+		props.add(clazz << 16 | 0x0102, value.length);
+	}
+
+	private static void document(DirectoryEntry dir, String name, byte[] content) throws IOException {
+		dir.createDocument(name, new ByteArrayInputStream(content));
+	}
+
+	/**
+	 * Words of random letters, now and then one with non-ASCII characters
+	 * that are representable in the encoding of the file.
+	 */
+	protected static String text(Context ctx, int chars) {
+		Random random = ctx.random;
+		String[] special = ctx.unicode ? WORDS_UNICODE : WORDS_ANSI;
+		StringBuilder sb = new StringBuilder(chars + 16);
+		while(sb.length() < chars)
+		{
+			if(sb.length() > 0)
+				sb.append(random.nextInt(12) == 0 ? "\r\n" : " ");
+			if(random.nextInt(20) == 0)
+			{
+				sb.append(special[random.nextInt(special.length)]);
+			}
+			else
+			{
+				int len = 1 + random.nextInt(10);
+				for(int i = 0; i < len; i++)
+					sb.append((char) ('a' + random.nextInt(26)));
+			}
+		}
+		sb.setLength(chars);
+		return sb.toString();
+	}
+
+	private static String words(Context ctx, int count) {
+		StringBuilder sb = new StringBuilder();
+		for(int i = 0; i < count; i++)
+		{
+			if(i > 0)
+				sb.append(' ');
+			int len = 3 + ctx.random.nextInt(6);
+			for(int j = 0; j < len; j++)
+				sb.append((char) ('a' + ctx.random.nextInt(26)));
+		}
+		return sb.toString();
+	}
+
+	private static String name(Random random) {
+		String[] first = { "Alice", "Bob", "Carol", "Dave", "Erin", "Frank", "Grace", "Heidi" };
+		String[] last = { "Smith", "Jones", "Miller", "Brown", "Taylor", "Wilson" };
+		return first[random.nextInt(first.length)] + " " + last[random.nextInt(last.length)];
+	}
+
+	private static String email(String name) {
+		return name.toLowerCase().replace(' ', '.') + "@example.com";
+	}
+
+	private static String join(List<String> names) {
+		StringBuilder sb = new StringBuilder();
+		for(String n : names)
+		{
+			if(sb.length() > 0)
+				sb.append("; ");
+			sb.append(n);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * The text as HTML with one paragraph per line. Characters that
+	 * windows-1252 cannot represent are written as numeric references.
+	 */
+	protected static String html(String text) {
+		CharsetEncoder encoder = CP1252.newEncoder();
+		StringBuilder sb = new StringBuilder("<html><head><meta http-equiv=\"Content-Type\" content=\"text/html; charset=windows-1252\"></head><body>\r\n<p>");
+		for(int i = 0; i < text.length(); i++)
+		{
+			char c = text.charAt(i);
+			if(c == '\r')
+				continue;
+			else if(c == '\n')
+				sb.append("</p>\r\n<p>");
+			else if(c == '<')
+				sb.append("&lt;");
+			else if(c == '>')
+				sb.append("&gt;");
+			else if(c == '&')
+				sb.append("&amp;");
+			else if(encoder.canEncode(c))
+				sb.append(c);
+			else
+				sb.append("&#").append((int) c).append(';');
+		}
+		sb.append("</p>\r\n</body></html>");
+		return sb.toString();
+	}
+
+	/**
+	 * Encapsulates HTML in RTF as Outlook does (MS-OXRTFEX): markup goes
+	 * into htmltag destinations, text outside of them.
+	 */
+	protected static String rtf(String html) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\\rtf1\\ansi\\ansicpg1252\\fromhtml1 \\fbidis \\deff0{\\fonttbl\r\n{\\f0\\fswiss Arial;}}\r\n");
+		sb.append("{\\colortbl\\red0\\green0\\blue255;}\r\n\\uc1\r\n");
+		int i = 0;
+		while(i < html.length())
+		{
+			char c = html.charAt(i);
+			if(c == '<')
+			{
+				int end = html.indexOf('>', i);
+				sb.append("{\\*\\htmltag");
+				sb.append(html.startsWith("</", i) ? 4 : 64);
+				sb.append(' ');
+				escapeRtf(html.substring(i, end + 1), sb);
+				sb.append('}');
+				i = end + 1;
+			}
+			else if(c == '\r' || c == '\n')
+			{
+				int start = i;
+				while(i < html.length() && (html.charAt(i) == '\r' || html.charAt(i) == '\n'))
+					i++;
+				sb.append("\\htmlrtf \\par\r\n\\htmlrtf0 {\\*\\htmltag64 ");
+				escapeRtf(html.substring(start, i), sb);
+				sb.append('}');
+			}
+			else
+			{
+				int start = i;
+				while(i < html.length() && html.charAt(i) != '<' && html.charAt(i) != '\r' && html.charAt(i) != '\n')
+					i++;
+				escapeRtf(html.substring(start, i), sb);
+			}
+		}
+		sb.append("}");
+		return sb.toString();
+	}
+
+	private static void escapeRtf(String s, StringBuilder sb) {
+		for(int i = 0; i < s.length(); i++)
+		{
+			char c = s.charAt(i);
+			if(c == '\\' || c == '{' || c == '}')
+				sb.append('\\').append(c);
+			else if(c == '\r')
+				continue;
+			else if(c == '\n')
+				sb.append("\\par ");
+			else if(c >= 0x80 && c <= 0xff)
+				sb.append(String.format("\\'%02x", (int) c));
+			else if(c >= 0x80)
+				sb.append("\\u").append((int) (short) c).append('?');
+			else
+				sb.append(c);
+		}
+	}
+
+	/**
+	 * Writes RTF in the compressed format of MS-OXRTFCP. Only literal
+	 * runs are emitted (8 per control byte), which every reader accepts;
+	 * the size is a little above the input, like an incompressible body.
+	 */
+	protected static byte[] compressRtf(byte[] rtf) {
+		ByteArrayOutputStream data = new ByteArrayOutputStream(rtf.length + rtf.length / 8 + 8);
+		int i = 0;
+		while(i < rtf.length)
+		{
+			int run = Math.min(8, rtf.length - i);
+			if(run == 8)
+			{
+				data.write(0);
+				data.write(rtf, i, 8);
+				i += 8;
+				continue;
+			}
+			// last run: the literals followed by the end marker, a
+			// reference to the current write position of the dictionary
+			data.write(1 << run);
+			data.write(rtf, i, run);
+			i += run;
+			writeEnd(data, rtf.length);
+			break;
+		}
+		if(rtf.length % 8 == 0)
+		{
+			data.write(1);
+			writeEnd(data, rtf.length);
+		}
+
+		byte[] payload = data.toByteArray();
+		ByteBuffer bb = ByteBuffer.allocate(16 + payload.length).order(ByteOrder.LITTLE_ENDIAN);
+		bb.putInt(payload.length + 12);
+		bb.putInt(rtf.length);
+		bb.putInt(0x75465a4c); // "LZFu"
+		bb.putInt(crc(payload));
+		bb.put(payload);
+		return bb.array();
+	}
+
+	/**
+	 * The dictionary is preloaded with 207 bytes, so after n literals the
+	 * write position is (207 + n) mod 4096.
+	 */
+	private static void writeEnd(ByteArrayOutputStream data, int written) {
+		int position = (207 + written) % 4096;
+		data.write(position >> 4);
+		data.write((position & 0xf) << 4);
+	}
+
+	/**
+	 * The CRC-32 of MS-OXRTFCP (no initial or final inversion).
+	 */
+	private static int crc(byte[] bytes) {
+		int crc = 0;
+		for(byte b : bytes)
+		{
+			int x = (crc ^ b) & 0xff;
+			for(int k = 0; k < 8; k++)
+				x = (x & 1) != 0 ? (x >>> 1) ^ 0xedb88320 : x >>> 1;
+			crc = x ^ (crc >>> 8);
+		}
+		return crc;
+	}
+
+	public static void main(String[] args) throws IOException {
+		OptionParser parser = new OptionParser("o:n:");
+		parser.accepts("seed").withRequiredArg();
+		parser.accepts("properties").withRequiredArg();
+		parser.accepts("recipients").withRequiredArg();
+		parser.accepts("attachments").withRequiredArg();
+		parser.accepts("attachment-size").withRequiredArg();
+		parser.accepts("body-chars").withRequiredArg();
+		parser.accepts("depth").withRequiredArg();
+		parser.accepts("fixed-depth");
+		parser.accepts("body").withRequiredArg();
+		parser.accepts("unicode");
+		parser.accepts("ansi");
+		OptionSet options = parser.parse(args);
+
+		if(!options.has("o"))
+		{
+			System.err.print("Usage: MsgGenerator -o <dir> [-n <count>] [--seed <n>] [--properties <n>] [--recipients <n>]"
+					+ " [--attachments <n>] [--attachment-size <bytes>] [--body-chars <n>] [--depth <n> [--fixed-depth]]"
+					+ " [--body text|html|rtf] [--unicode|--ansi]");
+			System.exit(1);
+		}
+
+		MsgGenerator gen = new MsgGenerator();
+		if(options.has("seed"))
+			gen.setSeed(Long.parseLong((String) options.valueOf("seed")));
+		if(options.has("properties"))
+			gen.setProperties(Integer.parseInt((String) options.valueOf("properties")));
+		if(options.has("recipients"))
+			gen.setRecipients(Integer.parseInt((String) options.valueOf("recipients")));
+		if(options.has("attachments"))
+			gen.setAttachments(Integer.parseInt((String) options.valueOf("attachments")));
+		if(options.has("attachment-size"))
+			gen.setAttachmentSize(Integer.parseInt((String) options.valueOf("attachment-size")));
+		if(options.has("body-chars"))
+			gen.setBodyChars(Integer.parseInt((String) options.valueOf("body-chars")));
+		if(options.has("depth"))
+			gen.setDepth(Integer.parseInt((String) options.valueOf("depth")), options.has("fixed-depth"));
+		if(options.has("body"))
+			gen.setBodyType(BodyType.valueOf(((String) options.valueOf("body")).toUpperCase()));
+		if(options.has("unicode") || options.has("ansi"))
+			gen.setUnicode(options.has("unicode"));
+
+		File dir = new File((String) options.valueOf("o"));
+		if(!dir.isDirectory() && !dir.mkdirs())
+		{
+			System.err.print("Directory " + dir.getPath() + " could not be created");
+			System.exit(1);
+		}
+
+		int count = options.has("n") ? Integer.parseInt((String) options.valueOf("n")) : 1;
+		for(int i = 0; i < count; i++)
+			gen.write(i, new File(dir, String.format("msg%06d.msg", i)));
+	}
+}
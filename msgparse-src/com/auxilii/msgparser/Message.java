@@ -18,25 +18,30 @@
 package com.auxilii.msgparser;
 
 import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
-import java.util.Map;
 import java.util.Set;
-import java.util.TreeMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.apache.poi.hmef.CompressedRTF;
+import org.apache.poi.poifs.filesystem.DocumentEntry;
 
 import com.auxilii.msgparser.attachment.Attachment;
 import com.auxilii.msgparser.attachment.FileAttachment;
 import com.auxilii.msgparser.attachment.MsgAttachment;
+import com.auxilii.msgparser.jfr.ConvertRtfEvent;
+import com.auxilii.msgparser.jfr.DecompressRtfEvent;
 import com.auxilii.msgparser.rtf.RTF2HTMLConverter;
 import com.auxilii.msgparser.rtf.SimpleRTF2HTMLConverter;
 
@@ -49,10 +54,16 @@ import com.auxilii.msgparser.rtf.SimpleRTF2HTMLConverter;
  * of the type {@link MsgAttachment} which 
  * represents another attached (encapsulated)
  * .msg object.
+ * <br /><br />
+ * If the message has been parsed with lazy loading
+ * enabled (see {@link MsgParser#setLazyLoading(boolean)}),
+ * property streams are only read when a getter
+ * needs them. Such a message should be closed
+ * with {@link #close()} once it is no longer used.
  * 
  * @author roman.kurmanowytsch
  */
-public class Message {
+public class Message implements Closeable {
 	protected static final Logger logger = Logger.getLogger(Message.class.getName());
 
 	/**
@@ -127,11 +138,11 @@ public class Message {
 	/**
 	 * Client Submit Time
 	 */
-	protected Date clientSubmitTime = null;
+	protected Instant clientSubmitTime = null;
 
-	protected Date creationDate = null;
+	protected Instant creationDate = null;
 	
-	protected Date lastModificationDate = null;
+	protected Instant lastModificationDate = null;
 	/**
 	 * A list of all attachments (both {@link FileAttachment}
 	 * and {@link MsgAttachment}).
@@ -141,7 +152,7 @@ public class Message {
 	 * Contains all properties that are not
 	 * covered by the special properties.
 	 */
-	protected Map<Integer,Object> properties = new TreeMap<Integer,Object>();
+	protected PropertyMap properties = new PropertyMap();
 	/**
 	 * A list containing all recipients for this message 
 	 * (which can be set in the 'to:', 'cc:' and 'bcc:' field, respectively).
@@ -149,6 +160,45 @@ public class Message {
 	protected List<RecipientEntry> recipients = new ArrayList<RecipientEntry>();
 	protected RTF2HTMLConverter rtf2htmlConverter;
 	
+	/**
+	 * Property streams that have not been read yet (lazy loading only).
+	 */
+	protected List<LazyProperty> lazyProperties = null;
+	/**
+	 * The parser used to read the {@link #lazyProperties}.
+	 */
+	protected MsgParser lazyParser = null;
+	/**
+	 * The .msg container the {@link #lazyProperties} are read from.
+	 */
+	protected Closeable container = null;
+	/**
+	 * The file this message has been parsed from (if known).
+	 */
+	protected String source = null;
+	/**
+	 * Statistics of the parse, may be null.
+	 */
+	protected ParseStats stats = null;
+	
+	protected static final int[] SUBJECT_PROPS = {0x37, 0xe1d};
+	protected static final int[] FROM_EMAIL_PROPS = {0xc1f, 0x65, 0x3ffa, 0x800d, 0x8008, 0x7d};
+	protected static final int[] TO_PROPS = {0x76, 0x8000, 0x3001, 0xe04};
+	protected static final int[] DATE_PROPS = {0x7d, 0x3007};
+	
+	/**
+	 * A property stream that is read on demand.
+	 */
+	protected static class LazyProperty {
+		protected final int code;
+		protected final DocumentEntry entry;
+		
+		protected LazyProperty(int code, DocumentEntry entry) {
+			this.code = code;
+			this.entry = entry;
+		}
+	}
+	
 	
 	public Message() {
 		this.rtf2htmlConverter = new SimpleRTF2HTMLConverter();
@@ -156,9 +206,9 @@ public class Message {
 	
 	public Message(RTF2HTMLConverter rtf2htmlConverter) {
 		if(rtf2htmlConverter != null) {
-			this.rtf2htmlConverter = new SimpleRTF2HTMLConverter();
+			this.rtf2htmlConverter = rtf2htmlConverter;
 		} else {
-			new Message();
+			this.rtf2htmlConverter = new SimpleRTF2HTMLConverter();
 		}
 	}
 	
@@ -176,6 +226,134 @@ public class Message {
 		}
 	}
 	
+	/**
+	 * Registers a property stream that should only be read
+	 * once one of the getters requires its value.
+	 * 
+	 * @param code The property code (e.g., 0x1000 for the body).
+	 * @param entry The stream holding the property value.
+	 * @param parser The parser used to read the stream later on.
+	 */
+	protected void addLazyProperty(int code, DocumentEntry entry, MsgParser parser) {
+		if (this.lazyProperties == null) {
+			this.lazyProperties = new ArrayList<LazyProperty>();
+		}
+		this.lazyProperties.add(new LazyProperty(code, entry));
+		this.lazyParser = parser;
+	}
+	
+	/**
+	 * Reads the pending property streams with the given codes (in
+	 * the order they appeared in the .msg file) and sets them via
+	 * {@link #setProperty(MessageProperty)}. Each stream is only read once.
+	 * 
+	 * @param codes The property codes to be loaded. If empty,
+	 *  all pending properties are loaded.
+	 */
+	protected synchronized void loadLazyProperties(int... codes) {
+		loadLazyProperties(codes, false);
+	}
+	
+	/**
+	 * Reads all pending property streams except the ones with the
+	 * given codes. This allows to load a message completely but for
+	 * expensive properties, e.g. the compressed RTF body (0x1009),
+	 * which is converted to HTML as soon as it has been read.
+	 * 
+	 * @param codes The property codes to be left pending.
+	 */
+	public synchronized void loadLazyPropertiesExcept(int... codes) {
+		loadLazyProperties(codes, true);
+	}
+	
+	private void loadLazyProperties(int[] codes, boolean except) {
+		if (this.lazyProperties == null || this.lazyProperties.isEmpty()) {
+			return;
+		}
+		// the entries are removed before they are read because
+		// setting a property may in turn request other properties
+		List<LazyProperty> toLoad = new ArrayList<LazyProperty>();
+		for (Iterator<LazyProperty> iter = this.lazyProperties.iterator(); iter.hasNext(); ) {
+			LazyProperty lp = iter.next();
+			if (codes.length == 0 || contains(codes, lp.code) != except) {
+				toLoad.add(lp);
+				iter.remove();
+			}
+		}
+		for (LazyProperty lp : toLoad) {
+			try {
+				this.setProperty(this.lazyParser.getMessagePropertyFromDocumentEntry(lp.entry, null, this));
+			} catch (IOException e) {
+				logger.log(Level.WARNING, "Could not read property " + convertToHex(lp.code), e);
+			}
+		}
+	}
+	
+	private static boolean contains(int[] codes, int code) {
+		for (int c : codes) {
+			if (c == code) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Sets the .msg container that has to stay open
+	 * as long as there are properties left to be loaded.
+	 * 
+	 * @param container The container to be closed by {@link #close()}.
+	 */
+	protected void setContainer(Closeable container) {
+		this.container = container;
+	}
+	
+	/**
+	 * @return The file this message has been parsed from
+	 *  or null if it has been parsed from a stream.
+	 */
+	public String getSource() {
+		return source;
+	}
+	
+	/**
+	 * @param source The file this message has been parsed from.
+	 */
+	public void setSource(String source) {
+		this.source = source;
+	}
+	
+	/**
+	 * @return The statistics of the parse or null if
+	 *  none have been requested.
+	 */
+	public ParseStats getStats() {
+		return stats;
+	}
+	
+	/**
+	 * @param stats The statistics of the parse.
+	 */
+	public void setStats(ParseStats stats) {
+		this.stats = stats;
+	}
+	
+	/**
+	 * Releases the underlying .msg file of a lazily loaded
+	 * message. Properties that have not been requested
+	 * before cannot be read afterwards.
+	 * 
+	 * @throws IOException Thrown if the file could not be closed.
+	 */
+	public void close() throws IOException {
+		this.lazyProperties = null;
+		if (this.container != null) {
+			Closeable c = this.container;
+			this.container = null;
+			c.close();
+		}
+	}
+	
 	
 	/**
 	 * Sets the name/value pair in the {@link #properties}
@@ -190,87 +368,91 @@ public class Message {
 	 *  type does not match the expected data type.
 	 */
 	public void setProperty(MessageProperty msgProp) throws ClassCastException {
-		String name = msgProp.getClazz();
+		int mapiClass = msgProp.getCode();
 		Object value = msgProp.getData();
 
-		logger.log(Level.FINEST, "Prop: " + name + " = " + (value == null ? "[NULL]" : value.toString()));
+		if (logger.isLoggable(Level.FINEST)) {
+			logger.log(Level.FINEST, "Prop: " + msgProp.getClazz() + " = " + (value == null ? "[NULL]" : value.toString()));
+		}
 		
-		if ((name == null) || (value == null)) {
+		if (value == null) {
 			return;
 		}
 
-		//Most fields expect a String representation of the value
-		String stringValue = this.convertValueToString(value);
-		
-		int mapiClass = -1;
-		try {
-			mapiClass = Integer.parseInt(name, 16);
-		} catch (NumberFormatException e) {
-			logger.log(Level.FINEST, "Unexpected type: "+name);  
-		}
-		
 		switch(mapiClass) {
 		case 0x1a: //MESSAGE CLASS
-			this.setMessageClass(stringValue);
+			this.setMessageClass(this.convertValueToString(value));
 			break;
 		case 0x1035:
-			this.setMessageId(stringValue);
+			this.setMessageId(this.convertValueToString(value));
 			break;
 		case 0x37: //SUBJECT
 		case 0xe1d: //NORMALIZED SUBJECT
-			this.setSubject(stringValue);
+			this.setSubject(this.convertValueToString(value));
 			break;
 		case 0xc1f: //SENDER EMAIL ADDRESS
 		case 0x65: //SENT REPRESENTING EMAIL ADDRESS
 		case 0x3ffa: //LAST MODIFIER NAME
 		case 0x800d:
 		case 0x8008:
-			this.setFromEmail(stringValue);
+			this.setFromEmail(this.convertValueToString(value));
 			break;
 		case 0x42: //SENT REPRESENTING NAME
-			this.setFromName(stringValue);
+			this.setFromName(this.convertValueToString(value));
 			break;
 		case 0x76: //RECEIVED BY EMAIL ADDRESS
-			this.setToEmail(stringValue, true);
+			this.setToEmail(this.convertValueToString(value), true);
 			break;
 		case 0x8000:
-			this.setToEmail(stringValue);
+			this.setToEmail(this.convertValueToString(value));
 			break;
 		case 0x3001: //DISPLAY NAME
-			this.setToName(stringValue);
+			this.setToName(this.convertValueToString(value));
 			break;
 		case 0xe04: //DISPLAY TO
-			this.setDisplayTo(stringValue);
+			this.setDisplayTo(this.convertValueToString(value));
 			break;
 		case 0xe03: //DISPLAY CC
-			this.setDisplayCc(stringValue);
+			this.setDisplayCc(this.convertValueToString(value));
 			break;
 		case 0xe02: //DISPLAY BCC
-			this.setDisplayBcc(stringValue);
+			this.setDisplayBcc(this.convertValueToString(value));
 			break;
 		case 0x1013: //HTML
-			this.setBodyHTML(stringValue, true);
+			this.setBodyHTML(this.convertValueToString(value), true);
 			break;
 		case 0x1000: //BODY
-			this.setBodyText(stringValue);
+			this.setBodyText(this.convertValueToString(value));
 			break;
 		case 0x1009: //RTF COMPRESSED
 			this.setBodyRTF(value);
 			break;
 		case 0x7d: //TRANSPORT MESSAGE HEADERS
-			this.setHeaders(stringValue);
+			this.setHeaders(this.convertValueToString(value));
 			break;
 		case 0x3007: //CREATION TIME
-			this.setCreationDate(stringValue);
+			if (value instanceof Instant) {
+				this.setCreationDate((Instant) value);
+			} else {
+				this.setCreationDate(this.convertValueToString(value));
+			}
 			break;
 		case 0x3008: //LAST MODIFICATION TIME
-			this.setLastModificationDate(stringValue);
+			if (value instanceof Instant) {
+				this.setLastModificationDate((Instant) value);
+			} else {
+				this.setLastModificationDate(this.convertValueToString(value));
+			}
 			break;
 		case 0x39: //CLIENT SUBMIT TIME
-			this.setClientSubmitTime(stringValue);
+			if (value instanceof Instant) {
+				this.setClientSubmitTime((Instant) value);
+			} else {
+				this.setClientSubmitTime(this.convertValueToString(value));
+			}
 			break;
 		default:
-			//System.out.println("Unknown field: " + new Integer(mapiClass).toString() + ": " + stringValue);
+			//System.out.println("Unknown field: " + new Integer(mapiClass).toString() + ": " + value);
 		}
 		
 		
@@ -333,6 +515,9 @@ public class Message {
 	 * @return A {@link Date} object representing the given date string.
 	 */
 	protected static Date parseDateString(String date) {
+		if (date == null) {
+			return null;
+		}
 		//in order to parse the date we try using the US locale before we 
 		//fall back to the default locale.
 		List<SimpleDateFormat> sdfList = new ArrayList<SimpleDateFormat>(2); 
@@ -361,12 +546,25 @@ public class Message {
 	protected byte[] decompressRtfBytes(byte[] value) {
 		byte[] decompressed = null;
 		if(value != null) {
+			DecompressRtfEvent event = new DecompressRtfEvent();
+			event.begin();
+			long start = System.nanoTime();
 			try {
 				CompressedRTF crtf = new CompressedRTF();
 				decompressed = crtf.decompress(new ByteArrayInputStream(value));
 			} catch(Exception e) {
 				logger.log(Level.FINEST, "Could not decompress RTF data", e);
 			}
+			if(this.stats != null) {
+				this.stats.addPhase(ParseStats.DECOMPRESS_RTF, System.nanoTime() - start);
+			}
+			event.end();
+			if(event.shouldCommit()) {
+				event.file = this.source;
+				event.compressedBytes = value.length;
+				event.bytes = decompressed == null ? 0 : decompressed.length;
+				event.commit();
+			}
 		}
 		return decompressed;
 	}
@@ -379,13 +577,13 @@ public class Message {
 	@Override
 	public String toString() {
 		StringBuffer sb = new StringBuffer();
-		sb.append("From: "+this.createMailString(this.fromEmail, this.fromName)+"\n");
-		sb.append("To: "+this.createMailString(this.toEmail, this.toName)+"\n");
-		if (this.date != null) {
+		sb.append("From: "+this.createMailString(this.getFromEmail(), this.getFromName())+"\n");
+		sb.append("To: "+this.createMailString(this.getToEmail(), this.getToName())+"\n");
+		if (this.getDate() != null) {
 			SimpleDateFormat formatter = new SimpleDateFormat("EEE, d MMM yyyy HH:mm:ss z", Locale.ENGLISH);
 			sb.append("Date: "+formatter.format(this.date)+"\n");
 		}
-		if (this.subject != null) sb.append("Subject: "+this.subject+"\n");
+		if (this.getSubject() != null) sb.append("Subject: "+this.subject+"\n");
 		sb.append(""+this.attachments.size()+" attachments.");
 		return sb.toString();
 	}
@@ -397,15 +595,15 @@ public class Message {
 	 */
 	public String toLongString() {
 		StringBuffer sb = new StringBuffer();
-		sb.append("From: "+this.createMailString(this.fromEmail, this.fromName)+"\n");
-		sb.append("To: "+this.createMailString(this.toEmail, this.toName)+"\n");
-		if (this.date != null) {
+		sb.append("From: "+this.createMailString(this.getFromEmail(), this.getFromName())+"\n");
+		sb.append("To: "+this.createMailString(this.getToEmail(), this.getToName())+"\n");
+		if (this.getDate() != null) {
 			SimpleDateFormat formatter = new SimpleDateFormat("EEE, d MMM yyyy HH:mm:ss z", Locale.ENGLISH);
 			sb.append("Date: "+formatter.format(this.date)+"\n");
 		}
-		if (this.subject != null) sb.append("Subject: "+this.subject+"\n");
+		if (this.getSubject() != null) sb.append("Subject: "+this.subject+"\n");
 		sb.append("\n");
-		if (this.bodyText != null) sb.append(this.bodyText);
+		if (this.getBodyText() != null) sb.append(this.bodyText);
 		if (this.attachments.size() > 0) {
 			sb.append("\n");
 			sb.append(""+this.attachments.size()+" attachments.\n");
@@ -476,6 +674,7 @@ public class Message {
 	 * @return the fromEmail
 	 */
 	public String getFromEmail() {
+		loadLazyProperties(FROM_EMAIL_PROPS);
 		return fromEmail;
 	}
 
@@ -505,6 +704,7 @@ public class Message {
 	 * @return the fromName
 	 */
 	public String getFromName() {
+		loadLazyProperties(0x42);
 		return fromName;
 	}
 
@@ -519,6 +719,7 @@ public class Message {
 	}
 
 	public String getDisplayTo() {
+		loadLazyProperties(0xe04);
 		return displayTo;
 	}
 
@@ -529,6 +730,7 @@ public class Message {
 	}
 
 	public String getDisplayCc() {
+		loadLazyProperties(0xe03);
 		return displayCc;
 	}
 
@@ -539,6 +741,7 @@ public class Message {
 	}
 
 	public String getDisplayBcc() {
+		loadLazyProperties(0xe02);
 		return displayBcc;
 	}
 
@@ -552,6 +755,7 @@ public class Message {
 	 * @return the messageClass
 	 */
 	public String getMessageClass() {
+		loadLazyProperties(0x1a);
 		return messageClass;
 	}
 
@@ -570,6 +774,7 @@ public class Message {
 	 * @return the messageId
 	 */
 	public String getMessageId() {
+		loadLazyProperties(0x1035);
 		return messageId;
 	}
 
@@ -588,6 +793,7 @@ public class Message {
 	 * @return the subject
 	 */
 	public String getSubject() {
+		loadLazyProperties(SUBJECT_PROPS);
 		return subject;
 	}
 
@@ -606,6 +812,7 @@ public class Message {
 	 * @return the toEmail
 	 */
 	public String getToEmail() {
+		loadLazyProperties(TO_PROPS);
 		return toEmail;
 	}
 
@@ -632,6 +839,7 @@ public class Message {
 	 * @return the toName
 	 */
 	public String getToName() {
+		loadLazyProperties(TO_PROPS);
 		return toName;
 	}
 
@@ -700,6 +908,7 @@ public class Message {
 	 * @return the bodyText
 	 */
 	public String getBodyText() {
+		loadLazyProperties(0x1000);
 		return bodyText;
 	}
 
@@ -716,6 +925,7 @@ public class Message {
 	 * @return the bodyRTF
 	 */
 	public String getBodyRTF() {
+		loadLazyProperties(0x1009);
 		return bodyRTF;
 	}
 
@@ -732,8 +942,22 @@ public class Message {
 				byte[] decompressedBytes = decompressRtfBytes((byte[]) bodyRTF);
 				if(decompressedBytes != null) {
 					this.bodyRTF = new String(decompressedBytes);
+					ConvertRtfEvent event = new ConvertRtfEvent();
+					event.begin();
+					long start = System.nanoTime();
 					try {
 						setConvertedBodyHTML(rtf2htmlConverter.rtf2html(this.bodyRTF));
+						if(this.stats != null) {
+							this.stats.addPhase(ParseStats.CONVERT_RTF, System.nanoTime() - start);
+						}
+						event.end();
+						if(event.shouldCommit()) {
+							event.file = this.source;
+							event.converter = rtf2htmlConverter.getClass();
+							event.rtfChars = this.bodyRTF.length();
+							event.htmlChars = this.convertedBodyHTML == null ? 0 : this.convertedBodyHTML.length();
+							event.commit();
+						}
 					} catch(Exception e) {
 						logger.log(Level.WARNING, "Could not convert RTF body to HTML.", e);
 					}
@@ -747,6 +971,7 @@ public class Message {
 	 * @return the bodyHTML
 	 */
 	public String getBodyHTML() {
+		loadLazyProperties(0x1013);
 		return bodyHTML;
 	}
 	
@@ -761,6 +986,7 @@ public class Message {
 	 * @return the convertedBodyHTML which is basically the result of an RTF-HTML conversion
 	 */
 	public String getConvertedBodyHTML() {
+		loadLazyProperties(0x1009);
 		return convertedBodyHTML;
 	}
 	
@@ -788,6 +1014,7 @@ public class Message {
 	 * @return the headers
 	 */
 	public String getHeaders() {
+		loadLazyProperties(0x7d);
 		return headers;
 	}
 
@@ -877,6 +1104,7 @@ public class Message {
 	 * @return the date
 	 */
 	public Date getDate() {
+		loadLazyProperties(DATE_PROPS);
 		return date;
 	}
 
@@ -888,45 +1116,93 @@ public class Message {
 		this.date = date;
 	}
 	
+	/**
+	 * @return the client submit time
+	 */
 	public Date getClientSubmitTime() {
+		return toDate(getClientSubmitInstant());
+	}
+	
+	/**
+	 * @return the client submit time with the full
+	 *  (100 nanosecond) precision of the .msg file
+	 */
+	public Instant getClientSubmitInstant() {
+		loadLazyProperties(0x39);
 		return clientSubmitTime;
 	}
 
-	public void setClientSubmitTime(String value) {
+	public void setClientSubmitTime(Instant value) {
 		if (value != null) {
-			Date d = Message.parseDateString(value);
-			if (d != null) {
-				this.clientSubmitTime = d;
-			}
+			this.clientSubmitTime = value;
 		}
 	}
+
+	public void setClientSubmitTime(String value) {
+		setClientSubmitTime(toInstant(Message.parseDateString(value)));
+	}
 	
+	/**
+	 * @return the creation date
+	 */
 	public Date getCreationDate() {
+		return toDate(getCreationInstant());
+	}
+	
+	/**
+	 * @return the creation date with the full
+	 *  (100 nanosecond) precision of the .msg file
+	 */
+	public Instant getCreationInstant() {
+		loadLazyProperties(0x3007);
 		return creationDate;
 	}
 
-	public void setCreationDate(String value) {
+	public void setCreationDate(Instant value) {
 		if (value != null) {
-			Date d = Message.parseDateString(value);
-			if (d != null) {
-				this.creationDate = d;
-				setDate(d);
-			}
+			this.creationDate = value;
+			setDate(Date.from(value));
 		}
 	}
 
+	public void setCreationDate(String value) {
+		setCreationDate(toInstant(Message.parseDateString(value)));
+	}
+
+	/**
+	 * @return the last modification date
+	 */
 	public Date getLastModificationDate() {
+		return toDate(getLastModificationInstant());
+	}
+	
+	/**
+	 * @return the last modification date with the full
+	 *  (100 nanosecond) precision of the .msg file
+	 */
+	public Instant getLastModificationInstant() {
+		loadLazyProperties(0x3008);
 		return lastModificationDate;
 	}
 
-	public void setLastModificationDate(String value) {
+	public void setLastModificationDate(Instant value) {
 		if (value != null) {
-			Date d = Message.parseDateString(value);
-			if (d != null) {
-				this.lastModificationDate = d;
-			}
+			this.lastModificationDate = value;
 		}
 	}
+
+	public void setLastModificationDate(String value) {
+		setLastModificationDate(toInstant(Message.parseDateString(value)));
+	}
+	
+	private static Date toDate(Instant instant) {
+		return instant == null ? null : Date.from(instant);
+	}
+	
+	private static Instant toInstant(Date date) {
+		return date == null ? null : date.toInstant();
+	}
+	
 	/**
 	 * This method should no longer be used due to the fact that
 	 * message properties are now stored with their keys being represented 
@@ -947,9 +1223,9 @@ public class Message {
 	 * @return All available keys properties have been found for.
 	 */
 	public Set<String> getPropertiesAsHex() {
-		Set<Integer> keySet = this.properties.keySet();
+		loadLazyProperties();
 		Set<String> result = new HashSet<String>();
-		for(Integer k : keySet) {
+		for(int k : this.properties.codes()) {
 			String s = convertToHex(k);
 			result.add(s);
 		}
@@ -995,7 +1271,18 @@ public class Message {
 	 * @return All available keys properties have been found for.
 	 */
 	public Set<Integer> getPropertyCodes() {
-		return this.properties.keySet();
+		loadLazyProperties();
+		return this.properties.codeSet();
+	}
+
+	/**
+	 * Like {@link #getPropertyCodes()}, but pending lazy
+	 * properties are not read.
+	 * 
+	 * @return All keys properties have been read for so far.
+	 */
+	public Set<Integer> getLoadedPropertyCodes() {
+		return this.properties.codeSet();
 	}
 
 	/**
@@ -1008,6 +1295,7 @@ public class Message {
 	 * @return The value of the specified property.
 	 */
 	public Object getPropertyValue(Integer code) {
+		loadLazyProperties(code);
 		return this.properties.get(code);
 	}
 
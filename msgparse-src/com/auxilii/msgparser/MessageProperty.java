@@ -16,6 +16,7 @@ package com.auxilii.msgparser;
 public class MessageProperty {
 	
 	private String clazz;
+	private int code;
 	private Object data;
 	private int size;
 
@@ -23,17 +24,56 @@ public class MessageProperty {
 	public MessageProperty(String clazz, Object data, int size) {
 		super();
 		this.clazz = clazz;
+		this.code = parseCode(clazz);
 		this.data = data;
 		this.size = size;
 	}
 
+	/**
+	 * Creates a property from its numeric code. The hex
+	 * representation is only built if {@link #getClazz()} is called.
+	 */
+	public MessageProperty(int code, Object data, int size) {
+		super();
+		this.code = code;
+		this.data = data;
+		this.size = size;
+	}
+
+	/**
+	 * Converts the 4 digit hex class of a property to its numeric code.
+	 * @param clazz The hex representation of the property type.
+	 * @return The property type or -1 if it could not be parsed.
+	 */
+	static int parseCode(String clazz) {
+		if (clazz != null) {
+			try {
+				return Integer.parseInt(clazz, 16);
+			} catch (NumberFormatException e) {
+				// unknown class
+			}
+		}
+		return -1;
+	}
+
 	/**
 	 * A 4 digit code representing the property type.
 	 * @return A string representation of the property type.
 	 */
 	public String getClazz() {
+		if (clazz == null && code >= 0) {
+			clazz = String.format("%04x", code);
+		}
 		return clazz;
 	}
+	
+	/**
+	 * The property type as an integer (e.g., 0x0037 for the subject).
+	 * @return The property type or -1 if it is unknown.
+	 */
+	public int getCode() {
+		return code;
+	}
 
 	/**
 	 * An object holding the property data.
@@ -19,31 +19,34 @@
  */
 package com.auxilii.msgparser;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import org.apache.poi.hpsf.Util;
 import org.apache.poi.poifs.filesystem.DirectoryEntry;
 import org.apache.poi.poifs.filesystem.DocumentEntry;
 import org.apache.poi.poifs.filesystem.DocumentInputStream;
 import org.apache.poi.poifs.filesystem.Entry;
+import org.apache.poi.poifs.filesystem.NPOIFSFileSystem;
 import org.apache.poi.poifs.filesystem.POIFSFileSystem;
 
 import com.auxilii.msgparser.attachment.Attachment;
 import com.auxilii.msgparser.attachment.FileAttachment;
 import com.auxilii.msgparser.attachment.MsgAttachment;
+import com.auxilii.msgparser.jfr.DecodePropertyEvent;
+import com.auxilii.msgparser.jfr.OpenContainerEvent;
+import com.auxilii.msgparser.jfr.WalkDirectoryEvent;
 import com.auxilii.msgparser.rtf.RTF2HTMLConverter;
 import com.auxilii.msgparser.rtf.SimpleRTF2HTMLConverter;
 
@@ -69,9 +72,13 @@ import com.auxilii.msgparser.rtf.SimpleRTF2HTMLConverter;
  * Furthermore there is a feature which allows us
  * to extract HTML bodies when only RTF bodies are available. 
  * In order to achieve this a conversion class implementing
- * {@link RTF2HTMLConverter} is used. This can be overridden
+ * {@link RTF2HTMLConverter} is used, by default the
+ * {@link SimpleRTF2HTMLConverter}. This can be overridden
  * with a custom implementation as well (see code below for
- * an example).
+ * an example). The single-pass
+ * {@link com.auxilii.msgparser.rtf.StreamingRTF2HTMLConverter}
+ * is much faster on large bodies, but its output differs in
+ * details, see its documentation.
  * <br /><br />
  * Note: this code has not been tested on a wide
  * range of .msg files. Use in production level
@@ -84,6 +91,21 @@ import com.auxilii.msgparser.rtf.SimpleRTF2HTMLConverter;
  * msgp.setRtf2htmlConverter(new SimpleRTF2HTMLConverter()); //optional (if you want to use your own implementation)<br />
  * Message msg = msgp.parseMsg("test.msg"); 
  * </code>
+ * <br /><br />
+ * Concurrency: a MsgParser is thread-safe once it has been configured
+ * and a single instance may be shared by any number of threads. Each
+ * call to parseMsg keeps its state in its own {@link ParseContext}; the
+ * converter and the lazy loading flag are captured when a parse starts,
+ * so changing them only affects parses started afterwards. The
+ * {@link SimpleRTF2HTMLConverter} and
+ * {@link com.auxilii.msgparser.rtf.StreamingRTF2HTMLConverter} are stateless and may be shared as
+ * well. {@link com.auxilii.msgparser.rtf.JEditorPaneRTF2HTMLConverter}
+ * is not thread-safe since it uses Swing outside of the event dispatch
+ * thread, a parser using it must not be shared between threads.
+ * A {@link Message}, on the other hand, is not thread-safe:
+ * apart from loading lazy properties (which is synchronized) it must be
+ * confined to one thread or synchronized externally, in particular while
+ * reading attachment streams of lazily loaded messages.
 
  * @author roman.kurmanowytsch
  */
@@ -94,7 +116,35 @@ public class MsgParser {
 	
 	protected static final String propertyStreamPrefix = "__substg1.0_";
 	
-	protected RTF2HTMLConverter rtf2htmlConverter = new SimpleRTF2HTMLConverter();
+	protected volatile RTF2HTMLConverter rtf2htmlConverter = new SimpleRTF2HTMLConverter();
+	
+	/**
+	 * If set, property streams of a message are only read
+	 * when the corresponding getter is called.
+	 */
+	protected volatile boolean lazyLoading = false;
+	
+	/**
+	 * The state of a single call to parseMsg. The settings
+	 * of the parser are copied when the parse starts, so
+	 * concurrent parses never share mutable state.
+	 */
+	protected static class ParseContext {
+		protected final ParseOptions options;
+		protected final RTF2HTMLConverter rtf2htmlConverter;
+		protected final boolean lazyLoading;
+		/**
+		 * The file being parsed (if known), it is reported in the JFR events.
+		 */
+		protected final String source;
+		
+		protected ParseContext(ParseOptions options, RTF2HTMLConverter rtf2htmlConverter, boolean lazyLoading, String source) {
+			this.options = options;
+			this.rtf2htmlConverter = rtf2htmlConverter;
+			this.lazyLoading = lazyLoading;
+			this.source = source;
+		}
+	}
 	
 	/**
 	 * Empty constructor.
@@ -112,7 +162,66 @@ public class MsgParser {
 	 *   be parsed correctly.
 	 */
 	public Message parseMsg(File msgFile) throws IOException, UnsupportedOperationException {
-		return this.parseMsg(new FileInputStream(msgFile), true);
+		return this.parseMsg(msgFile, new ParseOptions());
+	}
+	
+	/**
+	 * Parses the parts of a .msg file that are requested
+	 * by the given {@link ParseOptions}.
+	 * 
+	 * @param msgFile The .msg file.
+	 * @param options The parts of the .msg file to be parsed.
+	 * @return A {@link Message} object representing the .msg file.
+	 * @throws IOException Thrown if the file could not be loaded or parsed.
+	 * @throws UnsupportedOperationException Thrown if the .msg file cannot
+	 *   be parsed correctly.
+	 */
+	public Message parseMsg(File msgFile, ParseOptions options) throws IOException, UnsupportedOperationException {
+		ParseContext ctx = this.createContext(options, msgFile.getPath());
+		// the container is opened on top of a file channel
+		// so that POI only reads the sectors we actually
+		// touch instead of copying the whole file to the heap
+		FileChannel channel = FileChannel.open(msgFile.toPath(), StandardOpenOption.READ);
+		NPOIFSFileSystem fs = null;
+		try {
+			OpenContainerEvent event = new OpenContainerEvent();
+			event.begin();
+			long start = System.nanoTime();
+			fs = new NPOIFSFileSystem(channel);
+			if (options.getStats() != null) {
+				options.getStats().addPhase(ParseStats.OPEN, System.nanoTime() - start);
+			}
+			event.end();
+			if (event.shouldCommit()) {
+				event.file = ctx.source;
+				event.bytes = channel.size();
+				event.commit();
+			}
+			Message msg = this.parseMsg(fs.getRoot(), ctx);
+			if (ctx.lazyLoading) {
+				// the streams are read later on, hence
+				// the message now owns the container
+				msg.setContainer(fs);
+				fs = null;
+				channel = null;
+			}
+			return msg;
+		} finally {
+			if (fs != null) {
+				try {
+					fs.close();
+				} catch(Exception e) {
+					// ignore
+				}
+			}
+			if (channel != null) {
+				try {
+					channel.close();
+				} catch(Exception e) {
+					// ignore
+				}
+			}
+		}
 	}
 	
 	/**
@@ -125,7 +234,7 @@ public class MsgParser {
 	 *   be parsed correctly.
 	 */
 	public Message parseMsg(String msgFile) throws IOException, UnsupportedOperationException {
-		return this.parseMsg(new FileInputStream(msgFile), true);
+		return this.parseMsg(new File(msgFile));
 	}
 
 	/**
@@ -153,16 +262,38 @@ public class MsgParser {
 	 *   be parsed correctly.
 	 */
 	public Message parseMsg(InputStream msgFileStream, boolean closeStream) throws IOException, UnsupportedOperationException {
+		return this.parseMsg(msgFileStream, closeStream, new ParseOptions());
+	}
+
+	/**
+	 * Parses the parts of a .msg file provided by an input stream
+	 * that are requested by the given {@link ParseOptions}.
+	 * 
+	 * @param msgFileStream The .msg file as a InputStream.
+	 * @param closeStream Indicates whether the provided stream should
+	 *   be closed after the message has been read.
+	 * @param options The parts of the .msg file to be parsed.
+	 * @return A {@link Message} object representing the .msg file.
+	 * @throws IOException Thrown if the file could not be loaded or parsed.
+	 * @throws UnsupportedOperationException Thrown if the .msg file cannot
+	 *   be parsed correctly.
+	 */
+	public Message parseMsg(InputStream msgFileStream, boolean closeStream, ParseOptions options) throws IOException, UnsupportedOperationException {
 		// the .msg file, like a file system, contains directories
 		// and documents within this directories
 		// we now gain access to the root node
 		// and recursively go through the complete 'filesystem'.
 		Message msg = null;
 		try {
+			OpenContainerEvent event = new OpenContainerEvent();
+			event.begin();
+			long start = System.nanoTime();
 			POIFSFileSystem fs = new POIFSFileSystem(msgFileStream);
-			DirectoryEntry dir = fs.getRoot();
-			msg = new Message(rtf2htmlConverter);
-			this.checkDirectoryEntry(dir, msg);
+			if (options.getStats() != null) {
+				options.getStats().addPhase(ParseStats.OPEN, System.nanoTime() - start);
+			}
+			event.commit();
+			msg = this.parseMsg(fs.getRoot(), this.createContext(options, null));
 		} finally {
 		    if (closeStream) {
 			try {
@@ -175,6 +306,40 @@ public class MsgParser {
 		return msg;
 	}
 	
+	/**
+	 * Captures the current settings of the parser for a new parse.
+	 * 
+	 * @param options The parts of the .msg file to be parsed.
+	 * @param source The file being parsed or null if unknown.
+	 * @return The context of the parse.
+	 */
+	protected ParseContext createContext(ParseOptions options, String source) {
+		return new ParseContext(options, this.rtf2htmlConverter, this.lazyLoading, source);
+	}
+	
+	/**
+	 * Parses the root directory of an already opened
+	 * .msg container.
+	 * 
+	 * @param root The root node of the .msg file.
+	 * @param ctx The context of the current parse.
+	 * @return A {@link Message} object representing the .msg file.
+	 * @throws IOException Thrown if the .msg file could not be parsed.
+	 * @throws UnsupportedOperationException Thrown if the .msg file cannot
+	 *   be parsed correctly.
+	 */
+	protected Message parseMsg(DirectoryEntry root, ParseContext ctx) throws IOException, UnsupportedOperationException {
+		long start = System.nanoTime();
+		Message msg = new Message(ctx.rtf2htmlConverter);
+		msg.setSource(ctx.source);
+		msg.setStats(ctx.options.getStats());
+		this.checkDirectoryEntry(root, msg, ctx);
+		if (ctx.options.getStats() != null) {
+			ctx.options.getStats().addPhase(ParseStats.WALK, System.nanoTime() - start);
+		}
+		return msg;
+	}
+	
 	/**
 	 * Recursively parses the complete .msg file with the
 	 * help of the POI library. The parsed information is
@@ -182,16 +347,22 @@ public class MsgParser {
 	 * 
 	 * @param dir The current node in the .msg file.
 	 * @param msg The resulting {@link Message} object.
+	 * @param ctx The context of the current parse.
 	 * @throws IOException Thrown if the .msg file could not
 	 *  be parsed.
 	 * @throws UnsupportedOperationException Thrown if 
 	 *  the .msg file contains unknown data.
 	 */
-	protected void checkDirectoryEntry(DirectoryEntry dir, Message msg) throws IOException, UnsupportedOperationException {
+	protected void checkDirectoryEntry(DirectoryEntry dir, Message msg, ParseContext ctx) throws IOException, UnsupportedOperationException {
+		WalkDirectoryEvent event = new WalkDirectoryEvent();
+		event.begin();
+		int entries = 0;
+		long bytes = 0;
 		
 		// we iterate through all entries in the current directory
 		for (Iterator<?> iter = dir.getEntries(); iter.hasNext(); ) {
 		    Entry entry = (Entry) iter.next();
+		    entries++;
 		    
 		    // check whether the entry is either a directory entry
 		    // or a document entry
@@ -201,24 +372,38 @@ public class MsgParser {
 		    	// attachments have a special name and
 		    	// have to be handled separately at this point
 			    if (de.getName().startsWith("__attach_version1.0")) {
-			    	this.parseAttachment(de, msg);
+			    	if (ctx.options.isAttachmentsRequested()) {
+			    		this.parseAttachment(de, msg, ctx);
+			    	}
 			    } else if (de.getName().startsWith("__recip_version1.0")) {
 			    	// a recipient entry has been found (which is also a directory entry itself)
-			    	this.checkRecipientDirectoryEntry(de, msg);
+			    	if (ctx.options.isRecipientsRequested()) {
+			    		this.checkRecipientDirectoryEntry(de, msg);
+			    	}
 			    } else {
 			    	// a directory entry has been found. this
 			    	// node will be recursively checked
-			    	this.checkDirectoryEntry(de, msg);
+			    	this.checkDirectoryEntry(de, msg, ctx);
 			    }
 		    } else if (entry.isDocumentEntry()) {
 		    	// a document entry contains information about
 				// the mail (e.g, from, to, subject, ...)
 				DocumentEntry de = (DocumentEntry) entry;
-				checkDirectoryDocumentEntry(de, msg);
+				bytes += de.getSize();
+				checkDirectoryDocumentEntry(de, msg, ctx);
 		    } else {
 		        // any other type is not supported
 		    }
-		}		
+		}
+		
+		event.end();
+		if (event.shouldCommit()) {
+			event.file = ctx.source;
+			event.directory = dir.getName();
+			event.entries = entries;
+			event.bytes = bytes;
+			event.commit();
+		}
 	}
 
 	/**
@@ -246,7 +431,7 @@ public class MsgParser {
 				// a document entry contains information about
 				// the mail (e.g, from, to, subject, ...)
 				DocumentEntry de = (DocumentEntry) entry;
-				checkRecipientDocumentEntry(de, recipient);
+				checkRecipientDocumentEntry(de, recipient, msg);
 			} else {
 				// any other type is not supported
 			}
@@ -263,19 +448,25 @@ public class MsgParser {
 	 * 
 	 * @param de The current node in the .msg file.
 	 * @param msg The resulting {@link Message} object.
+	 * @param ctx The context of the current parse.
 	 * @throws IOException Thrown if the .msg file could not
 	 *  be parsed.
 	 */
-	protected void checkDirectoryDocumentEntry(DocumentEntry de, Message msg) throws IOException {
+	protected void checkDirectoryDocumentEntry(DocumentEntry de, Message msg, ParseContext ctx) throws IOException {
 		if (de.getName().startsWith(propsKey)) {
-			//TODO: parse properties stream
-			List<DocumentEntry> deList = getDocumentEntriesFromPropertiesStream(de);
-			for(DocumentEntry deFromProps : deList) {
-				MessageProperty msgProp = getMessagePropertyFromDocumentEntry(deFromProps);
+			List<MessageProperty> props = getMessagePropertiesFromPropertiesStream(de, ctx.options, msg);
+			for(MessageProperty msgProp : props) {
 				msg.setProperty(msgProp);
 			}
+    	} else if (ctx.lazyLoading) {
+    		// only remember the entry, it is read by the
+    		// message as soon as the property is requested
+    		FieldInformation info = this.analyzeDocumentEntry(de, ctx.options);
+    		if (info.getMapiType() != FieldInformation.UNKNOWN_MAPITYPE) {
+    			msg.addLazyProperty(MessageProperty.parseCode(info.getClazz()), de, this);
+    		}
     	} else {
-    		MessageProperty msgProp = getMessagePropertyFromDocumentEntry(de);
+    		MessageProperty msgProp = getMessagePropertyFromDocumentEntry(de, ctx.options, msg);
 			msg.setProperty(msgProp);
     	}
 	}
@@ -291,99 +482,141 @@ public class MsgParser {
 	 *  be parsed.
 	 */
 	protected void checkRecipientDocumentEntry(DocumentEntry de, RecipientEntry recipient) throws IOException {
+		checkRecipientDocumentEntry(de, recipient, null);
+	}
+	
+	/**
+	 * Parses a recipient document entry, see {@link #checkRecipientDocumentEntry(DocumentEntry, RecipientEntry)}.
+	 * 
+	 * @param de The current node in the .msg file.
+	 * @param recipient The resulting {@link RecipientEntry} object.
+	 * @param msg The message the recipient belongs to or null if unknown.
+	 * @throws IOException Thrown if the .msg file could not
+	 *  be parsed.
+	 */
+	protected void checkRecipientDocumentEntry(DocumentEntry de, RecipientEntry recipient, Message msg) throws IOException {
 		if (de.getName().startsWith(propsKey)) {
-			//TODO: parse properties stream
-			List<DocumentEntry> deList = getDocumentEntriesFromPropertiesStream(de);
-			for(DocumentEntry deFromProps : deList) {
-				MessageProperty msgProp = getMessagePropertyFromDocumentEntry(deFromProps);
+			List<MessageProperty> props = getMessagePropertiesFromPropertiesStream(de, null, msg);
+			for(MessageProperty msgProp : props) {
 				recipient.setProperty(msgProp);
 			}
 		} else {
-			MessageProperty msgProp = getMessagePropertyFromDocumentEntry(de);
+			MessageProperty msgProp = getMessagePropertyFromDocumentEntry(de, null, msg);
 			recipient.setProperty(msgProp);
 		}
 	}
 	
 	/**
-	 * Parses a document entry which has been detected to be a stream of document entries itself.
-	 * This stream is identified by the key "__properties_version1.0".
+	 * Parses a document entry which has been detected to be a stream of properties itself.
+	 * This stream is identified by the key "__properties_version1.0" and consists
+	 * of 16 byte records (tag, flags and 8 bytes of data). The records are decoded
+	 * straight from the stream contents, variable length properties are skipped
+	 * as their values are stored in separate streams.
 	 * @param de The stream to be parsed.
-	 * @return A list of document entries for further processing.
+	 * @param options The requested properties or null if all properties are requested.
+	 * @param msg The message being parsed (for its source and statistics) or null.
+	 * @return A list of properties with fixed length values.
 	 * @throws IOException Thrown if the properties stream could not be parsed.
 	 */
-	private List<DocumentEntry> getDocumentEntriesFromPropertiesStream(DocumentEntry de) throws IOException {
-		List<DocumentEntry> result = new ArrayList<DocumentEntry>();
+	protected List<MessageProperty> getMessagePropertiesFromPropertiesStream(DocumentEntry de, ParseOptions options, Message msg) throws IOException {
+		DecodePropertyEvent event = new DecodePropertyEvent();
+		event.begin();
+		long start = System.nanoTime();
+		
+		List<MessageProperty> result = new ArrayList<MessageProperty>();
+		byte[] bytes = new byte[de.getSize()];
 		DocumentInputStream dstream = new DocumentInputStream(de);
+		try {
+			dstream.readFully(bytes);
+		} finally {
+			dstream.close();
+		}
+		
+		ByteBuffer bb = ByteBuffer.wrap(bytes);
+		bb.order(ByteOrder.LITTLE_ENDIAN);
 		
 		int headerLength = 4;
-		int flagsLength = 4;
-		byte[] bytes = new byte[headerLength];
-		while ((dstream.read(bytes)) == headerLength) {
-			StringBuilder header = new StringBuilder();
-			for(int i = bytes.length-1; i>=0; i--) {
-		        header.append(bytesToHex(new byte[]{bytes[i]}));
-		    }
+		int recordLength = 16;
+		while (bb.remaining() >= headerLength) {
+			int tag = bb.getInt(bb.position());
+			int clazz = (tag >>> 16) & 0xffff;
+			int type = tag & 0xffff;
 			
-			//header ready for use
-			String type = header.substring(4);
-			String clazz = header.substring(0, 4);
+			// the stream starts with a header of a varying size
+			// (depending on whether this is the top level message,
+			// an attachment, a recipient or an embedded message).
+			// its words never contain a property class, hence we
+			// simply skip them
+			if (clazz == 0) {
+				bb.position(bb.position() + headerLength);
+				continue;
+			}
+			if (bb.remaining() < recordLength) {
+				break;
+			}
+			if (options != null && !options.isPropertyRequested(clazz)) {
+				bb.position(bb.position() + recordLength);
+				continue;
+			}
 			
-			int typeNumber = -1;
-			try {
-				typeNumber = Integer.parseInt(type, 16);
-			} catch (NumberFormatException e) {
-				logger.log(Level.FINEST, "Unexpected type: "+type);  
+			// value starts after the tag and the (ignored) flags
+			int offset = bb.position() + 8;
+			Object value = null;
+			int size = 0;
+			switch (type) {
+			case 0x2: //SHORT
+				value = Short.valueOf(bb.getShort(offset));
+				size = 2;
+				break;
+			case 0x3: //INT
+			case 0xa: //ERROR
+				value = Integer.valueOf(bb.getInt(offset));
+				size = 4;
+				break;
+			case 0x4: //FLOAT
+				value = Float.valueOf(bb.getFloat(offset));
+				size = 4;
+				break;
+			case 0xb: //BOOLEAN
+				value = Boolean.valueOf(bb.getShort(offset) != 0);
+				size = 2;
+				break;
+			case 0x5: //DOUBLE
+			case 0x7: //APPTIME
+				value = Double.valueOf(bb.getDouble(offset));
+				size = 8;
+				break;
+			case 0x6: //CURRENCY
+			case 0x14: //INT8BYTE
+				value = Long.valueOf(bb.getLong(offset));
+				size = 8;
+				break;
+			case 0x40: //SYSTIME
+				value = filetimeToInstant(bb.getLong(offset));
+				size = 8;
+				break;
+			default:
+				// CLSID, STRING, UNICODE STRING, OBJECT, BINARY:
+				// found datatype with variable length, thus the value is stored in a separate stream.
+				// no data available inside the properties stream
 			}
-
 			
-			if(!clazz.equals("0000")) {
-				//reading and ignoring flags
-				bytes = new byte[flagsLength];
-				dstream.read(bytes);
-				//System.out.println("flags: " + bytesToHex(bytes));
-
-				// reading data
-				if (typeNumber == 0x48 //CLSID
-						|| typeNumber == 0x1e //STRING
-						|| typeNumber == 0x1f //UNICODE STRING
-						|| typeNumber == 0xd //OBJECT
-						|| typeNumber == 0x102) { //BINARY
-					//found datatype with variable length, thus the value is stored in a separate string
-					//no data available inside the properties stream
-					//reading and ignoring size
-					bytes = null;
-					dstream.read(new byte[4]);
-				} else if (typeNumber == 0x3 //INT
-						|| typeNumber == 0x4 //FLOAT
-						|| typeNumber == 0xa //ERROR
-						|| typeNumber == 0xb //BOOLEAN
-						|| typeNumber == 0x2) { //SHORT
-					// 4 bytes
-					bytes = new byte[4];
-					dstream.read(bytes);
-					dstream.read(bytes); //read and ignore padding
-				} else if (typeNumber == 0x5 //DOUBLE
-						|| typeNumber == 0x7 //APPTIME
-						|| typeNumber == 0x6 //CURRENCY
-						|| typeNumber == 0x14 //INT8BYTE
-						|| typeNumber == 0x40) { //SYSTIME
-					// 8 bytes
-					bytes = new byte[8];
-					dstream.read(bytes);
-				}
-				//stream ready for use
-
-				if(bytes != null) {
-					//creating new document entry for later processing of all document entries
-					POIFSFileSystem poifs = new POIFSFileSystem();
-					result.add(poifs.createDocument(new ByteArrayInputStream(bytes), "__substg1.0_" + header.toString()));
-				}
-			}	
-
-			//start over with new byte[] for next header
-			bytes = new byte[headerLength];
+			if (value != null) {
+				result.add(new MessageProperty(clazz, value, size));
+			}
+			bb.position(bb.position() + recordLength);
 		}
 		
+		if (msg != null && msg.getStats() != null) {
+			msg.getStats().addStream(de.getName(), bytes.length, System.nanoTime() - start);
+		}
+		event.end();
+		if (event.shouldCommit()) {
+			event.file = msg == null ? null : msg.getSource();
+			event.stream = de.getName();
+			event.bytes = bytes.length;
+			event.commit();
+		}
 		return result;
 	}
 
@@ -393,15 +626,41 @@ public class MsgParser {
 	 * @return An object holding the type and data of the read property.
 	 * @throws IOException In case the property could not be parsed.
 	 */
-	private MessageProperty getMessagePropertyFromDocumentEntry(DocumentEntry de) throws IOException {
+	MessageProperty getMessagePropertyFromDocumentEntry(DocumentEntry de) throws IOException {
+		return getMessagePropertyFromDocumentEntry(de, null, null);
+	}
+	
+	/**
+	 * Reads a property from a document entry if it is requested by the given options.
+	 * @param de The {@link DocumentEntry} to be read.
+	 * @param options The requested properties or null if all properties are requested.
+	 * @param msg The message being parsed (for its source and statistics) or null.
+	 * @return An object holding the type and data of the read property. The data
+	 *  is null if the property has not been requested.
+	 * @throws IOException In case the property could not be parsed.
+	 */
+	MessageProperty getMessagePropertyFromDocumentEntry(DocumentEntry de, ParseOptions options, Message msg) throws IOException {
 		// analyze the document entry
 		// (i.e., get class and data type)
-		FieldInformation info = this.analyzeDocumentEntry(de);
+		FieldInformation info = this.analyzeDocumentEntry(de, options);
 		// create a Java object from the data provided
 		// by the input stream. depending on the field
 		// information, either a String or a byte[] will
 		// be returned. other datatypes are not yet supported
+		DecodePropertyEvent event = new DecodePropertyEvent();
+		event.begin();
+		long start = System.nanoTime();
 		Object data = this.getData(de, info);
+		if (data != null && msg != null && msg.getStats() != null) {
+			msg.getStats().addStream(info.getClazz(), de.getSize(), System.nanoTime() - start);
+		}
+		event.end();
+		if (event.shouldCommit() && data != null) {
+			event.file = msg == null ? null : msg.getSource();
+			event.stream = de.getName();
+			event.bytes = de.getSize();
+			event.commit();
+		}
 		logger.finest("  Document data: "+((data == null) ? "null" : data.toString()));
 		return new MessageProperty(info.getClazz(), data, de.getSize());
 	}
@@ -491,12 +750,7 @@ public class MsgParser {
 			
 			bb.order(ByteOrder.LITTLE_ENDIAN);
 			
-			int low = bb.getInt();
-			int high = bb.getInt();
-			
-			Date date = Util.filetimeToDate(high, low);
-			
-			return date;
+			return filetimeToInstant(bb.getLong());
 		}
 		
 
@@ -506,6 +760,19 @@ public class MsgParser {
 		return null;
 	}
 
+	/**
+	 * Converts a FILETIME value (the number of 100-nanosecond
+	 * units since January 1, 1601) to an {@link Instant}
+	 * without losing any precision.
+	 * @param filetime The FILETIME value.
+	 * @return The corresponding instant.
+	 */
+	protected static Instant filetimeToInstant(long filetime) {
+		long seconds = Math.floorDiv(filetime, 10000000L) - 11644473600L;
+		long nanos = Math.floorMod(filetime, 10000000L) * 100;
+		return Instant.ofEpochSecond(seconds, nanos);
+	}
+
 	/**
 	 * Reads the bytes from the stream to a byte array.
 	 * @param dstream The stream to be read from.
@@ -523,14 +790,6 @@ public class MsgParser {
 		return bytes;
 	}
 	
-	private String bytesToHex(byte[] bytes) throws IOException {
-		StringBuilder byteStr = new StringBuilder();
-		for(int i = 0; i < bytes.length; i++) {
-			byteStr.append(String.format("%02X", bytes[i] & 0xff));
-		}
-		return byteStr.toString();
-	}
-	
 	/**
 	 * Analyzes the {@link DocumentEntry} and returns
 	 * a {@link FieldInformation} object containing the
@@ -545,6 +804,22 @@ public class MsgParser {
 	 *  and type.
 	 */
 	protected FieldInformation analyzeDocumentEntry(DocumentEntry de) {
+		return this.analyzeDocumentEntry(de, null);
+	}
+	
+	/**
+	 * Analyzes the {@link DocumentEntry} like {@link #analyzeDocumentEntry(DocumentEntry)}
+	 * but additionally returns an empty {@link FieldInformation} object
+	 * if the property has not been requested by the given options. Hence, 
+	 * {@link #getData(DocumentEntry, FieldInformation)} will not
+	 * read the stream at all.
+	 * 
+	 * @param de The {@link DocumentEntry} that should be examined.
+	 * @param options The requested properties or null if all properties are requested.
+	 * @return A {@link FieldInformation} object containing class
+	 *  and type of the document entry.
+	 */
+	protected FieldInformation analyzeDocumentEntry(DocumentEntry de, ParseOptions options) {
     	String name = de.getName();
     	// we are only interested in document entries
     	// with names starting with __substg1.
@@ -567,6 +842,10 @@ public class MsgParser {
     			logger.log(Level.FINE, "Could not parse directory entry "+name, re);
     			return new FieldInformation();
     		}
+    		if (options != null && !options.isPropertyRequested(MessageProperty.parseCode(clazz))) {
+    			logger.finest("  Skipping entry that has not been requested");
+    			return new FieldInformation();
+    		}
     		return new FieldInformation(clazz, mapiType);
     	} else {
     		logger.finest("Ignoring entry with name "+name);
@@ -588,10 +867,11 @@ public class MsgParser {
 	 *  describing the attachment (name, extension, mime type, ...)
 	 * @param msg The {@link Message} object that this
 	 *  attachment should be added to.
+	 * @param ctx The context of the current parse.
 	 * @throws IOException Thrown if the attachment could
 	 *  not be parsed/read.
 	 */
-	protected void parseAttachment(DirectoryEntry dir, Message msg) throws IOException {
+	protected void parseAttachment(DirectoryEntry dir, Message msg, ParseContext ctx) throws IOException {
 		
 		FileAttachment attachment = new FileAttachment();
 		
@@ -603,7 +883,20 @@ public class MsgParser {
 		    	// the document entry may contain information
 		    	// about the attachment
 		    	DocumentEntry de = (DocumentEntry) entry;
-				MessageProperty msgProp = getMessagePropertyFromDocumentEntry(de);
+		    	if (de.getName().startsWith(propertyStreamPrefix + "3701")) {
+		    		if (!ctx.options.isAttachmentDataRequested()) {
+		    			// only the size of the attachment is of interest,
+		    			// which is known without reading the stream
+		    			attachment.setSize(de.getSize());
+		    			continue;
+		    		} else if (ctx.lazyLoading) {
+		    			// the content is streamed from the
+		    			// container when it is requested
+		    			attachment.setDataEntry(de);
+		    			continue;
+		    		}
+		    	}
+				MessageProperty msgProp = getMessagePropertyFromDocumentEntry(de, null, msg);
 
 		    	// we provide the class and data of the document
 		    	// entry to the attachment. the attachment implementation
@@ -617,11 +910,13 @@ public class MsgParser {
 		    	// at this point. we recursively parse
 		    	// this .msg file and add it as a MsgAttachment
 		    	// object to the current Message object.
-		    	Message attachmentMsg = new Message();
+		    	Message attachmentMsg = new Message(ctx.rtf2htmlConverter);
+		    	attachmentMsg.setSource(ctx.source);
+		    	attachmentMsg.setStats(ctx.options.getStats());
 		    	MsgAttachment msgAttachment = new MsgAttachment();
 		    	msgAttachment.setMessage(attachmentMsg);
 		    	msg.addAttachment(msgAttachment);
-		    	this.checkDirectoryEntry((DirectoryEntry) entry, attachmentMsg);
+		    	this.checkDirectoryEntry((DirectoryEntry) entry, attachmentMsg, ctx);
 		    }
 		}
 
@@ -637,9 +932,23 @@ public class MsgParser {
 	/**
 	 * Setter for overriding the default {@link RTF2HTMLConverter} 
 	 * implementation which is used to get HTML code from an RTF body.
+	 * The converter is used by concurrent parses and hence has to
+	 * be thread-safe if the parser is shared.
 	 * @param rtf2htmlConverter The converter instance to be used.
 	 */
 	public void setRtf2htmlConverter(RTF2HTMLConverter rtf2htmlConverter) {
 		this.rtf2htmlConverter = rtf2htmlConverter;
 	}
+	
+	/**
+	 * Enables or disables lazy loading. With lazy loading enabled
+	 * only the directory of the .msg file is walked while parsing,
+	 * each property stream is read when it is requested for the
+	 * first time. Messages parsed from a {@link File} keep the file
+	 * open until {@link Message#close()} is called.
+	 * @param lazyLoading true to read property streams on demand.
+	 */
+	public void setLazyLoading(boolean lazyLoading) {
+		this.lazyLoading = lazyLoading;
+	}
 }
@@ -0,0 +1,159 @@
+/*
+ * msgparser - http://auxilii.com/msgparser
+ * Copyright (C) 2007  Roman Kurmanowytsch
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package com.auxilii.msgparser;
+
+import java.util.Arrays;
+
+/**
+ * Describes which parts of a .msg file should be parsed
+ * by {@link MsgParser#parseMsg(java.io.File, ParseOptions)}.
+ * Streams that are not requested are skipped based on
+ * their name, i.e., their data is never read.
+ * <br /><br />
+ * By default everything is parsed. As soon as
+ * {@link #addProperties(int...)} has been called, only
+ * the listed message properties are parsed (this also
+ * applies to attached .msg files).
+ * <br /><br />
+ * Usage:
+ * <br /><br />
+ * <code>
+ * ParseOptions options = new ParseOptions();<br />
+ * options.addProperties(0x37, 0x39); // subject and client submit time<br />
+ * options.setRecipientsRequested(false);<br />
+ * Message msg = new MsgParser().parseMsg(file, options);
+ * </code>
+ */
+public class ParseOptions {
+
+	/**
+	 * The requested property codes in ascending order
+	 * or null if all properties are requested.
+	 */
+	protected int[] propertyCodes = null;
+	/**
+	 * Whether recipient entries should be parsed.
+	 */
+	protected boolean recipientsRequested = true;
+	/**
+	 * Whether attachments should be parsed.
+	 */
+	protected boolean attachmentsRequested = true;
+	/**
+	 * Whether the content of file attachments should be read.
+	 */
+	protected boolean attachmentDataRequested = true;
+	/**
+	 * Collects statistics about the parse, may be null.
+	 */
+	protected ParseStats stats = null;
+
+	/**
+	 * Empty constructor that requests everything.
+	 */
+	public ParseOptions() {
+	}
+
+	/**
+	 * Restricts parsing to the given message properties
+	 * (in addition to the ones added before).
+	 *
+	 * @param codes The property codes (e.g., 0x37 for the subject).
+	 */
+	public void addProperties(int... codes) {
+		int offset = 0;
+		if (this.propertyCodes == null) {
+			this.propertyCodes = Arrays.copyOf(codes, codes.length);
+		} else {
+			offset = this.propertyCodes.length;
+			this.propertyCodes = Arrays.copyOf(this.propertyCodes, offset + codes.length);
+			System.arraycopy(codes, 0, this.propertyCodes, offset, codes.length);
+		}
+		Arrays.sort(this.propertyCodes);
+	}
+
+	/**
+	 * @param code The property code.
+	 * @return true if the message property should be parsed.
+	 */
+	public boolean isPropertyRequested(int code) {
+		return this.propertyCodes == null || Arrays.binarySearch(this.propertyCodes, code) >= 0;
+	}
+
+	/**
+	 * @return true if recipient entries should be parsed.
+	 */
+	public boolean isRecipientsRequested() {
+		return recipientsRequested;
+	}
+
+	/**
+	 * @param recipientsRequested whether recipient entries should be parsed
+	 */
+	public void setRecipientsRequested(boolean recipientsRequested) {
+		this.recipientsRequested = recipientsRequested;
+	}
+
+	/**
+	 * @return true if attachments should be parsed.
+	 */
+	public boolean isAttachmentsRequested() {
+		return attachmentsRequested;
+	}
+
+	/**
+	 * @param attachmentsRequested whether attachments should be parsed
+	 */
+	public void setAttachmentsRequested(boolean attachmentsRequested) {
+		this.attachmentsRequested = attachmentsRequested;
+	}
+
+	/**
+	 * @return true if the content of file attachments should be read.
+	 */
+	public boolean isAttachmentDataRequested() {
+		return attachmentDataRequested;
+	}
+
+	/**
+	 * If set to false, only the metadata (name, size, mime type, ...)
+	 * of file attachments is parsed.
+	 *
+	 * @param attachmentDataRequested whether the content of file attachments should be read
+	 */
+	public void setAttachmentDataRequested(boolean attachmentDataRequested) {
+		this.attachmentDataRequested = attachmentDataRequested;
+	}
+
+	/**
+	 * @return The statistics collected for the parse or null.
+	 */
+	public ParseStats getStats() {
+		return stats;
+	}
+
+	/**
+	 * Makes the parser record timings and byte counts into the given
+	 * object. Use a new object (and a new ParseOptions) per parse.
+	 *
+	 * @param stats The statistics to be filled or null.
+	 */
+	public void setStats(ParseStats stats) {
+		this.stats = stats;
+	}
+}
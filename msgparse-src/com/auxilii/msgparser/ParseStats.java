@@ -0,0 +1,97 @@
+/*
+ * msgparser - http://auxilii.com/msgparser
+ * Copyright (C) 2007  Roman Kurmanowytsch
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package com.auxilii.msgparser;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Collects where the time of a parse went and how many bytes
+ * were read from which streams. Pass an instance with
+ * {@link ParseOptions#setStats(ParseStats)}; it is shared by
+ * the message and its attached messages and keeps collecting
+ * while lazily loaded properties are read.
+ * <br /><br />
+ * Phases may be nested, e.g. "decode" is part of "walk"
+ * unless the properties are loaded lazily.
+ */
+public class ParseStats {
+
+	public static final String OPEN = "open";
+	public static final String WALK = "walk";
+	public static final String DECODE = "decode";
+	public static final String DECOMPRESS_RTF = "decompress_rtf";
+	public static final String CONVERT_RTF = "convert_rtf";
+
+	/**
+	 * Nanoseconds spent per phase, in the order the phases first occurred
+	 */
+	protected final Map<String, Long> phaseNanos = new LinkedHashMap<String, Long>();
+	/**
+	 * Bytes read per stream, keyed by property tag (e.g. "1009") or stream name
+	 */
+	protected final Map<String, Long> streamBytes = new TreeMap<String, Long>();
+	protected int streamsOpened = 0;
+
+	/**
+	 * Adds time spent in a phase.
+	 *
+	 * @param phase The phase, e.g. {@link #OPEN}.
+	 * @param nanos The duration in nanoseconds.
+	 */
+	public synchronized void addPhase(String phase, long nanos) {
+		Long before = phaseNanos.get(phase);
+		phaseNanos.put(phase, before == null ? nanos : before + nanos);
+	}
+
+	/**
+	 * Records that a stream has been read and decoded.
+	 *
+	 * @param tag The property tag or the name of the stream.
+	 * @param bytes The size of the stream.
+	 * @param nanos The time it took to read and decode it.
+	 */
+	public synchronized void addStream(String tag, long bytes, long nanos) {
+		streamsOpened++;
+		Long before = streamBytes.get(tag);
+		streamBytes.put(tag, before == null ? bytes : before + bytes);
+		addPhase(DECODE, nanos);
+	}
+
+	/**
+	 * @return A copy of the nanoseconds spent per phase.
+	 */
+	public synchronized Map<String, Long> getPhaseNanos() {
+		return new LinkedHashMap<String, Long>(phaseNanos);
+	}
+
+	/**
+	 * @return A copy of the bytes read per property tag or stream name.
+	 */
+	public synchronized Map<String, Long> getStreamBytes() {
+		return new TreeMap<String, Long>(streamBytes);
+	}
+
+	/**
+	 * @return The number of streams that have been read.
+	 */
+	public synchronized int getStreamsOpened() {
+		return streamsOpened;
+	}
+}
@@ -0,0 +1,136 @@
+/*
+ * msgparser - http://auxilii.com/msgparser
+ * Copyright (C) 2007  Roman Kurmanowytsch
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package com.auxilii.msgparser;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Map from property codes to property values that
+ * stores the codes as primitive ints (open addressing
+ * with linear probing). Null values are not supported,
+ * an empty slot is marked by a null value.
+ */
+public class PropertyMap {
+
+	private static final int INITIAL_CAPACITY = 32;
+
+	private int[] keys = new int[INITIAL_CAPACITY];
+	private Object[] values = new Object[INITIAL_CAPACITY];
+	private int size = 0;
+
+	/**
+	 * Stores the value for the given property code,
+	 * replacing any previous value.
+	 *
+	 * @param code The property code.
+	 * @param value The value, must not be null.
+	 */
+	public void put(int code, Object value) {
+		if (value == null) {
+			throw new IllegalArgumentException("Property values must not be null");
+		}
+		// keep the load factor below 0.5
+		if ((size + 1) * 2 > keys.length) {
+			resize(keys.length * 2);
+		}
+		int i = indexOf(code, keys, values);
+		if (values[i] == null) {
+			keys[i] = code;
+			size++;
+		}
+		values[i] = value;
+	}
+
+	/**
+	 * @param code The property code.
+	 * @return The value for the code or null if there is none.
+	 */
+	public Object get(int code) {
+		return values[indexOf(code, keys, values)];
+	}
+
+	/**
+	 * @param code The property code.
+	 * @return true if a value has been stored for the code.
+	 */
+	public boolean containsKey(int code) {
+		return get(code) != null;
+	}
+
+	/**
+	 * @return The number of stored properties.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return All property codes in ascending order.
+	 */
+	public int[] codes() {
+		int[] result = new int[size];
+		int c = 0;
+		for (int i = 0; i < values.length; i++) {
+			if (values[i] != null) {
+				result[c++] = keys[i];
+			}
+		}
+		Arrays.sort(result);
+		return result;
+	}
+
+	/**
+	 * Creates a sorted set of all property codes. The codes
+	 * are boxed, hence this should not be used in hot paths.
+	 *
+	 * @return All property codes in ascending order.
+	 */
+	public Set<Integer> codeSet() {
+		Set<Integer> result = new TreeSet<Integer>();
+		for (int code : codes()) {
+			result.add(code);
+		}
+		return result;
+	}
+
+	private static int indexOf(int code, int[] keys, Object[] values) {
+		int mask = keys.length - 1;
+		int h = code * 0x9E3779B9;
+		int i = (h ^ (h >>> 16)) & mask;
+		while (values[i] != null && keys[i] != code) {
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
+
+	private void resize(int capacity) {
+		int[] newKeys = new int[capacity];
+		Object[] newValues = new Object[capacity];
+		for (int i = 0; i < values.length; i++) {
+			if (values[i] != null) {
+				int j = indexOf(keys[i], newKeys, newValues);
+				newKeys[j] = keys[i];
+				newValues[j] = values[i];
+			}
+		}
+		keys = newKeys;
+		values = newValues;
+	}
+}
@@ -18,9 +18,7 @@
 package com.auxilii.msgparser;
 
 import java.util.HashSet;
-import java.util.Map;
 import java.util.Set;
-import java.util.TreeMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -44,7 +42,7 @@ public class RecipientEntry {
 	 * Contains all properties that are not
 	 * covered by the special properties.
 	 */
-	protected Map<Integer,Object> properties = new TreeMap<Integer,Object>();
+	protected PropertyMap properties = new PropertyMap();
 
 	/**
 	 * Sets the name/value pair in the {@link #properties}
@@ -57,20 +55,12 @@ public class RecipientEntry {
 	 *  type does not match the expected data type.
 	 */
 	public void setProperty(MessageProperty msgProp) throws ClassCastException {
-		String name = msgProp.getClazz();
+		int mapiClass = msgProp.getCode();
 		Object value = msgProp.getData();
 		
-		if ((name == null) || (value == null)) {
+		if (value == null) {
 			return;
 		}
-		name = name.intern();
-		
-		int mapiClass = -1;
-		try {
-			mapiClass = Integer.parseInt(name, 16);
-		} catch (NumberFormatException e) {
-			logger.log(Level.FINEST, "Unexpected mapi class: "+name);  
-		}
 		
 		switch(mapiClass) {
 			case 0x3003: //EMAIL ADDRESS
@@ -158,9 +148,8 @@ public class RecipientEntry {
 	 * @return All available keys properties have been found for.
 	 */
 	public Set<String> getPropertiesAsHex() {
-		Set<Integer> keySet = this.properties.keySet();
 		Set<String> result = new HashSet<String>();
-		for(Integer k : keySet) {
+		for(int k : this.properties.codes()) {
 			String s = String.format("%04x", k);
 			result.add(s);
 		}
@@ -207,7 +196,7 @@ public class RecipientEntry {
 	 * @return All available keys properties have been found for.
 	 */
 	public Set<Integer> getPropertyCodes() {
-		return this.properties.keySet();
+		return this.properties.codeSet();
 	}
 	
 	/**
@@ -17,6 +17,16 @@
  */
 package com.auxilii.msgparser.attachment;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.poi.poifs.filesystem.DocumentEntry;
+import org.apache.poi.poifs.filesystem.DocumentInputStream;
+
 import com.auxilii.msgparser.MessageProperty;
 
 /**
@@ -25,10 +35,15 @@ import com.auxilii.msgparser.MessageProperty;
  * It contains some useful information (as long
  * as it is available in the .msg file) like
  * the attachment name, its size, etc.
+ * <br /><br />
+ * If the message has been parsed with lazy loading,
+ * the content is not held in memory but read from the
+ * .msg file whenever {@link #getDataStream()} is called.
  * 
  * @author roman.kurmanowytsch
  */
 public class FileAttachment implements Attachment {
+	protected static final Logger logger = Logger.getLogger(FileAttachment.class.getName());
 
 	/**
 	 * The (by Outlook) shortened filename of
@@ -52,6 +67,11 @@ public class FileAttachment implements Attachment {
 	 * The attachment itself as a byte array.
 	 */
 	protected byte[] data = null;
+	/**
+	 * The stream holding the attachment if
+	 * it has not been read into {@link #data}.
+	 */
+	protected DocumentEntry dataEntry = null;
 	/**
 	 * The size of the attachment.
 	 */
@@ -115,11 +135,53 @@ public class FileAttachment implements Attachment {
 	}
 
 	/**
+	 * Returns the attachment as a byte array. If the 
+	 * attachment is backed by the .msg file, the complete
+	 * attachment is read into memory on each call, hence
+	 * {@link #getDataStream()} should be preferred.
+	 * 
 	 * @return the data
 	 */
 	public byte[] getData() {
+		if (data == null && dataEntry != null) {
+			try {
+				InputStream in = getDataStream();
+				try {
+					ByteArrayOutputStream baos = new ByteArrayOutputStream((int) size);
+					byte[] buffer = new byte[8192];
+					int read = -1;
+					while ((read = in.read(buffer)) > 0) {
+						baos.write(buffer, 0, read);
+					}
+					return baos.toByteArray();
+				} finally {
+					in.close();
+				}
+			} catch (IOException e) {
+				logger.log(Level.WARNING, "Could not read attachment " + this, e);
+			}
+		}
 		return data;
 	}
+	
+	/**
+	 * Opens a stream for reading the attachment. Attachments
+	 * of lazily loaded messages are read directly from the .msg
+	 * file, which must not have been closed yet.
+	 * 
+	 * @return A new stream with the content of the attachment
+	 *  or null if there is no content.
+	 * @throws IOException Thrown if the stream could not be opened.
+	 */
+	public InputStream getDataStream() throws IOException {
+		if (data != null) {
+			return new ByteArrayInputStream(data);
+		}
+		if (dataEntry != null) {
+			return new DocumentInputStream(dataEntry);
+		}
+		return null;
+	}
 
 	/**
 	 * @param data the data to set
@@ -127,6 +189,28 @@ public class FileAttachment implements Attachment {
 	public void setData(byte[] data) {
 		this.data = data;
 	}
+	
+	/**
+	 * Sets the stream the attachment is read from on demand.
+	 * The size of the attachment is taken from the stream.
+	 * 
+	 * @param dataEntry the stream holding the attachment
+	 */
+	public void setDataEntry(DocumentEntry dataEntry) {
+		this.dataEntry = dataEntry;
+		this.data = null;
+		if (dataEntry != null) {
+			this.setSize(dataEntry.getSize());
+		}
+	}
+
+	/**
+	 * @return true if the content is held in memory, false if it
+	 *  is read from the .msg file or not available at all.
+	 */
+	public boolean isDataInMemory() {
+		return data != null;
+	}
 
 	/**
 	 * @return the size
@@ -0,0 +1,37 @@
+/*
+ * msgparser - http://auxilii.com/msgparser
+ * Copyright (C) 2007  Roman Kurmanowytsch
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package com.auxilii.msgparser.jfr;
+
+import jdk.jfr.DataAmount;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Reading and decoding one property stream.
+ */
+@Name("msgparser.DecodeProperty")
+@Label("Decode Property")
+public class DecodePropertyEvent extends ParseEvent {
+
+	@Label("Stream")
+	public String stream;
+
+	@Label("Stream Size")
+	@DataAmount
+	public long bytes;
+}
@@ -24,6 +24,13 @@ import java.io.Writer;
 import javax.swing.JEditorPane;
 import javax.swing.text.EditorKit;
 
+/**
+ * Converts RTF to HTML with the RTF and HTML editor kits of Swing.
+ * <br /><br />
+ * This class is not thread-safe: Swing components may only be used
+ * from one thread at a time, so a parser using this converter must
+ * not parse several messages concurrently.
+ */
 public class JEditorPaneRTF2HTMLConverter implements RTF2HTMLConverter {
 
 	public String rtf2html(String rtf) throws Exception {
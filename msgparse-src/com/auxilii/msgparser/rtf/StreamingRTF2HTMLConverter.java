@@ -0,0 +1,528 @@
+/*
+ * msgparser - http://auxilii.com/msgparser
+ * Copyright (C) 2007  Roman Kurmanowytsch
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package com.auxilii.msgparser.rtf;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Converts RTF to HTML in a single pass over the input. The RTF is
+ * tokenized character by character and a small state machine (one
+ * state per group) decides what is written to the output buffer.
+ * <br /><br />
+ * Bodies that Outlook created from HTML (marked with \fromhtml1) are
+ * de-encapsulated as described in MS-OXRTFEX: the contents of
+ * \*\htmltag destinations and all text outside of \htmlrtf blocks
+ * are written as they are, which restores the original HTML. Any
+ * other RTF is converted to text wrapped into a simple HTML document,
+ * like {@link SimpleRTF2HTMLConverter} does.
+ * <br /><br />
+ * It is not the default, set it with
+ * {@link com.auxilii.msgparser.MsgParser#setRtf2htmlConverter(RTF2HTMLConverter)}.
+ * Compared to {@link SimpleRTF2HTMLConverter}, the output differs:
+ * <ul>
+ * <li>Links in plain bodies are detected per whitespace separated word
+ * of the decoded text, so trailing punctuation such as "," or ")." is
+ * part of the link (as with the other converter), but an address directly
+ * after an opening bracket is not linked. https:// is linked as well.</li>
+ * <li>Plain text is HTML-escaped and every \par becomes one &lt;br/&gt;,
+ * while the other converter drops \par and collapses line breaks.</li>
+ * <li>\'xx uses the code page of \ansicpg instead of always CP1252,
+ * and &#92;uN is decoded.</li>
+ * <li>HTML bodies are de-encapsulated by \fromhtml1 instead of being
+ * cut from the first &lt;html to the first &lt;/html&gt;, so text that is
+ * only in \htmlrtf blocks no longer leaks into the HTML.</li>
+ * </ul>
+ * <br />
+ * The converter is stateless and may be shared between threads.
+ */
+public class StreamingRTF2HTMLConverter implements RTF2HTMLConverter {
+
+	protected static final Logger logger = Logger.getLogger(StreamingRTF2HTMLConverter.class.getName());
+
+	/**
+	 * Destinations whose content is never part of the text
+	 */
+	protected static final Set<String> SKIPPED_DESTINATIONS = new HashSet<String>(Arrays.asList(
+			"fonttbl", "colortbl", "stylesheet", "info", "pict", "object", "fldinst",
+			"header", "headerl", "headerr", "headerf", "footer", "footerl", "footerr", "footerf",
+			"listtable", "listoverridetable", "rsidtbl", "xmlnstbl", "generator", "revtbl", "filetbl",
+			"pntext", "pntxta", "pntxtb", "themedata", "colorschememapping", "latentstyles", "datastore"));
+
+	protected static final String PLAIN_START = "<html><body style=\"font-family:'Courier',monospace;font-size:10pt;\">";
+	protected static final String PLAIN_END = "</body></html>";
+
+	public String rtf2html(String rtf) throws Exception {
+		if (rtf == null) {
+			return null;
+		}
+		return new Conversion(rtf).run();
+	}
+
+	/**
+	 * The state of a group, inherited by nested groups.
+	 */
+	private static class GroupState {
+		/** Inside a destination that is not output */
+		boolean skip;
+		/** Inside an \*\htmltag destination */
+		boolean htmlTag;
+		/** Inside an \htmlrtf block, i.e. RTF-only content of an encapsulated body */
+		boolean htmlRtf;
+		/** The number of fallback characters after \\u */
+		int uc = 1;
+		/** The group started with \* */
+		boolean ignorable;
+
+		void copyFrom(GroupState s) {
+			skip = s.skip;
+			htmlTag = s.htmlTag;
+			htmlRtf = s.htmlRtf;
+			uc = s.uc;
+			ignorable = false;
+		}
+	}
+
+	/**
+	 * The state of one conversion.
+	 */
+	private static class Conversion {
+
+		final String rtf;
+		final StringBuilder out;
+
+		GroupState[] stack = new GroupState[16];
+		int depth = 0;
+		GroupState state;
+
+		/** The body is encapsulated HTML (\fromhtml1) */
+		boolean fromHtml = false;
+		/** Something has been written, the kind of body cannot change anymore */
+		boolean started = false;
+		/** Fallback characters of \\u that still have to be skipped */
+		int fallback = 0;
+		Charset charset = Charset.forName("windows-1252");
+
+		/** Bytes of \'xx sequences, decoded together for double-byte code pages */
+		byte[] bytes = new byte[16];
+		int byteCount = 0;
+
+		/** The current word of plain text, links are detected per word */
+		final StringBuilder word = new StringBuilder();
+
+		Conversion(String rtf) {
+			this.rtf = rtf;
+			this.out = new StringBuilder(rtf.length() / 2 + 16);
+			for (int i = 0; i < stack.length; i++) {
+				stack[i] = new GroupState();
+			}
+			state = stack[0];
+		}
+
+		String run() {
+			int n = rtf.length();
+			int i = 0;
+			while (i < n) {
+				char c = rtf.charAt(i);
+				switch (c) {
+				case '{':
+					flushBytes();
+					push();
+					i++;
+					break;
+				case '}':
+					flushBytes();
+					pop();
+					i++;
+					break;
+				case '\\':
+					i = controlSequence(i + 1);
+					break;
+				case '\r':
+				case '\n':
+					// line breaks in the RTF source have no meaning
+					i++;
+					break;
+				default:
+					flushBytes();
+					text(c);
+					i++;
+				}
+			}
+			flushBytes();
+
+			if (fromHtml) {
+				return out.toString();
+			}
+			start();
+			flushWord();
+			out.append(PLAIN_END);
+			return out.toString();
+		}
+
+		private void push() {
+			depth++;
+			if (depth == stack.length) {
+				stack = Arrays.copyOf(stack, depth * 2);
+				for (int i = depth; i < stack.length; i++) {
+					stack[i] = new GroupState();
+				}
+			}
+			stack[depth].copyFrom(state);
+			state = stack[depth];
+			fallback = 0;
+		}
+
+		private void pop() {
+			if (depth > 0) {
+				depth--;
+				state = stack[depth];
+			}
+			fallback = 0;
+		}
+
+		/**
+		 * Handles the control word or symbol after a backslash.
+		 *
+		 * @return The position after it.
+		 */
+		private int controlSequence(int i) {
+			int n = rtf.length();
+			if (i >= n) {
+				return n;
+			}
+			char c = rtf.charAt(i);
+
+			if (isLetter(c)) {
+				int start = i;
+				while (i < n && isLetter(rtf.charAt(i)) && i - start < 32) {
+					i++;
+				}
+				String name = rtf.substring(start, i);
+
+				boolean hasParam = false;
+				boolean negative = false;
+				int param = 0;
+				if (i < n && rtf.charAt(i) == '-') {
+					negative = true;
+					i++;
+				}
+				while (i < n && rtf.charAt(i) >= '0' && rtf.charAt(i) <= '9') {
+					param = param * 10 + (rtf.charAt(i) - '0');
+					hasParam = true;
+					i++;
+				}
+				if (negative) {
+					param = -param;
+				}
+				if (i < n && rtf.charAt(i) == ' ') {
+					i++;
+				}
+
+				if (!name.equals("bin")) {
+					flushBytes();
+					controlWord(name, hasParam, param);
+				} else if (hasParam && param > 0) {
+					// binary data is never text
+					i = Math.min(n, i + param);
+				}
+				return i;
+			}
+
+			if (c == '\'') {
+				if (i + 2 < n) {
+					int hi = Character.digit(rtf.charAt(i + 1), 16);
+					int lo = Character.digit(rtf.charAt(i + 2), 16);
+					if (hi >= 0 && lo >= 0) {
+						hexByte((byte) (hi << 4 | lo));
+						return i + 3;
+					}
+				}
+				return i + 1;
+			}
+
+			flushBytes();
+			switch (c) {
+			case '\\':
+			case '{':
+			case '}':
+				text(c);
+				break;
+			case '~':
+				text('\u00a0');
+				break;
+			case '_':
+				text('-');
+				break;
+			case '*':
+				state.ignorable = true;
+				break;
+			case '\r':
+			case '\n':
+				controlWord("par", false, 0);
+				break;
+			default:
+				// optional hyphens, formulas etc.
+				if (fallback > 0) {
+					fallback--;
+				}
+			}
+			return i + 1;
+		}
+
+		private void controlWord(String name, boolean hasParam, int param) {
+			if (state.skip) {
+				return;
+			}
+			if (fallback > 0) {
+				fallback--;
+				return;
+			}
+
+			if (state.ignorable) {
+				state.ignorable = false;
+				if (fromHtml && name.equals("htmltag")) {
+					state.htmlTag = true;
+					state.htmlRtf = false;
+				} else {
+					state.skip = true;
+				}
+				return;
+			}
+			if (SKIPPED_DESTINATIONS.contains(name)) {
+				state.skip = true;
+				return;
+			}
+
+			switch (name) {
+			case "fromhtml":
+				if (!started) {
+					fromHtml = !hasParam || param != 0;
+				}
+				break;
+			case "htmlrtf":
+				state.htmlRtf = !hasParam || param != 0;
+				break;
+			case "ansicpg":
+				try {
+					charset = Charset.forName("windows-" + param);
+				} catch (RuntimeException e) {
+					try {
+						charset = Charset.forName("cp" + param);
+					} catch (RuntimeException e2) {
+						logger.log(Level.FINE, "Unsupported code page " + param);
+					}
+				}
+				break;
+			case "uc":
+				state.uc = Math.max(0, param);
+				break;
+			case "u":
+				text((char) (param < 0 ? param + 65536 : param));
+				fallback = state.uc;
+				break;
+			case "par":
+			case "line":
+				lineBreak();
+				break;
+			case "tab":
+				text('\t');
+				break;
+			case "emdash":
+				text('\u2014');
+				break;
+			case "endash":
+				text('\u2013');
+				break;
+			case "bullet":
+				text('\u2022');
+				break;
+			case "lquote":
+				text('\u2018');
+				break;
+			case "rquote":
+				text('\u2019');
+				break;
+			case "ldblquote":
+				text('\u201c');
+				break;
+			case "rdblquote":
+				text('\u201d');
+				break;
+			default:
+				// formatting
+			}
+		}
+
+		/**
+		 * @return Whether text is not written in the current state.
+		 */
+		private boolean suppressed() {
+			return state.skip || (fromHtml && !state.htmlTag && state.htmlRtf);
+		}
+
+		private void hexByte(byte b) {
+			if (state.skip) {
+				return;
+			}
+			if (fallback > 0) {
+				fallback--;
+				return;
+			}
+			if (byteCount == bytes.length) {
+				bytes = Arrays.copyOf(bytes, bytes.length * 2);
+			}
+			bytes[byteCount++] = b;
+		}
+
+		private void flushBytes() {
+			if (byteCount == 0) {
+				return;
+			}
+			String decoded = new String(bytes, 0, byteCount, charset);
+			byteCount = 0;
+			for (int i = 0; i < decoded.length(); i++) {
+				write(decoded.charAt(i));
+			}
+		}
+
+		private void text(char c) {
+			if (state.skip) {
+				return;
+			}
+			if (fallback > 0) {
+				fallback--;
+				return;
+			}
+			write(c);
+		}
+
+		private void write(char c) {
+			if (suppressed()) {
+				return;
+			}
+			started = true;
+			if (fromHtml) {
+				out.append(c);
+			} else if (c == ' ' || c == '\t' || c == '\u00a0') {
+				start();
+				flushWord();
+				escape(c);
+			} else {
+				word.append(c);
+			}
+		}
+
+		private void lineBreak() {
+			if (suppressed()) {
+				return;
+			}
+			started = true;
+			if (fromHtml) {
+				out.append("\r\n");
+			} else {
+				start();
+				flushWord();
+				out.append("<br/>\r\n");
+			}
+		}
+
+		/**
+		 * Writes the start of the HTML document of a plain body.
+		 */
+		private void start() {
+			if (out.length() == 0) {
+				out.append(PLAIN_START);
+			}
+		}
+
+		/**
+		 * Writes the current word of a plain body, web and mail
+		 * addresses become links.
+		 */
+		private void flushWord() {
+			if (word.length() == 0) {
+				return;
+			}
+			if (startsWith(word, "http://") || startsWith(word, "https://")) {
+				out.append("<a href=\"");
+				escape(word);
+				out.append("\">");
+				escape(word);
+				out.append("</a>");
+			} else if (startsWith(word, "mailto:") && word.indexOf("@") > 0) {
+				out.append("<a href=\"");
+				escape(word);
+				out.append("\">");
+				escape(word.subSequence(7, word.length()));
+				out.append("</a>");
+			} else {
+				escape(word);
+			}
+			word.setLength(0);
+		}
+
+		private void escape(CharSequence s) {
+			for (int i = 0; i < s.length(); i++) {
+				escape(s.charAt(i));
+			}
+		}
+
+		private void escape(char c) {
+			switch (c) {
+			case '<':
+				out.append("&lt;");
+				break;
+			case '>':
+				out.append("&gt;");
+				break;
+			case '&':
+				out.append("&amp;");
+				break;
+			case '"':
+				out.append("&quot;");
+				break;
+			case '\u00a0':
+				out.append("&nbsp;");
+				break;
+			default:
+				out.append(c);
+			}
+		}
+
+		private static boolean startsWith(StringBuilder sb, String prefix) {
+			if (sb.length() < prefix.length()) {
+				return false;
+			}
+			for (int i = 0; i < prefix.length(); i++) {
+				if (sb.charAt(i) != prefix.charAt(i)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private static boolean isLetter(char c) {
+			return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+		}
+	}
+}
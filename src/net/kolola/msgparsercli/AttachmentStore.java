@@ -0,0 +1,108 @@
+package net.kolola.msgparsercli;
+
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import com.auxilii.msgparser.attachment.FileAttachment;
+
+/**
+ * Content-addressed store for extracted attachments. Every attachment is
+ * hashed (SHA-256) while it is written and stored once under its digest,
+ * e.g. ab/abcdef..., so identical payloads found in many messages take
+ * up disk space only once. Several processes may share a store.
+ */
+public class AttachmentStore {
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	protected final File dir;
+	protected final File tmpDir;
+
+	public AttachmentStore(File dir) throws IOException {
+		this.dir = dir;
+		this.tmpDir = new File(dir, "tmp");
+		if(!tmpDir.isDirectory() && !tmpDir.mkdirs())
+			throw new IOException("Directory " + tmpDir.getPath() + " could not be created");
+	}
+
+	/**
+	 * Writes the attachment to the store unless its content is already there.
+	 *
+	 * @param lock The lock reads from the attachment's container are synchronized on
+	 * @return The hex encoded SHA-256 of the content
+	 */
+	public String store(FileAttachment fatt, Object lock) throws IOException {
+		MessageDigest md;
+		try
+		{
+			md = MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new IllegalStateException(e);
+		}
+
+		File tmp = File.createTempFile("att", ".tmp", tmpDir);
+		try
+		{
+			OutputStream out = new DigestOutputStream(new FileOutputStream(tmp), md);
+			try
+			{
+				MsgParseCLI.writeAttachment(fatt, out, lock);
+			}
+			finally
+			{
+				out.close();
+			}
+
+			String digest = toHex(md.digest());
+			File target = getFile(digest);
+			if(!target.exists())
+			{
+				File parent = target.getParentFile();
+				if(!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory())
+					throw new IOException("Directory " + parent.getPath() + " could not be created");
+
+				try
+				{
+					Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+				}
+				catch (FileAlreadyExistsException e)
+				{
+					// stored concurrently by someone else
+				}
+			}
+			return digest;
+		}
+		finally
+		{
+			tmp.delete();
+		}
+	}
+
+	/**
+	 * @return The file the content with the given digest is stored in.
+	 */
+	public File getFile(String digest) {
+		return new File(new File(dir, digest.substring(0, 2)), digest);
+	}
+
+	private static String toHex(byte[] bytes) {
+		char[] hex = new char[bytes.length * 2];
+		for(int i = 0; i < bytes.length; i++)
+		{
+			hex[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+			hex[i * 2 + 1] = HEX[bytes[i] & 0xf];
+		}
+		return new String(hex);
+	}
+}
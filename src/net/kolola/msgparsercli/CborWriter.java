@@ -0,0 +1,195 @@
+package net.kolola.msgparsercli;
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+/**
+ * Minimal CBOR (RFC 8949) encoder writing directly to an output stream.
+ * Only what the -i output needs is supported: integers, text and byte
+ * strings, booleans, null, doubles, arrays, maps and epoch timestamps
+ * (tag 1). Maps and arrays of unknown size use the indefinite-length
+ * encoding and have to be closed with {@link #end()}.
+ */
+public class CborWriter {
+
+	private static final int MAJOR_UINT = 0;
+	private static final int MAJOR_NINT = 1;
+	private static final int MAJOR_BYTES = 2;
+	private static final int MAJOR_TEXT = 3;
+	private static final int MAJOR_ARRAY = 4;
+	private static final int MAJOR_MAP = 5;
+	private static final int MAJOR_TAG = 6;
+
+	private static final int TAG_EPOCH = 1;
+	private static final int INDEFINITE = 31;
+	private static final int BREAK = 0xff;
+
+	protected final OutputStream out;
+
+	public CborWriter(OutputStream out) {
+		this.out = out;
+	}
+
+	public CborWriter beginMap() throws IOException {
+		out.write(MAJOR_MAP << 5 | INDEFINITE);
+		return this;
+	}
+
+	public CborWriter beginArray() throws IOException {
+		out.write(MAJOR_ARRAY << 5 | INDEFINITE);
+		return this;
+	}
+
+	/**
+	 * Closes the innermost map or array.
+	 */
+	public CborWriter end() throws IOException {
+		out.write(BREAK);
+		return this;
+	}
+
+	public CborWriter value(long value) throws IOException {
+		if(value >= 0)
+			head(MAJOR_UINT, value);
+		else
+			head(MAJOR_NINT, -1 - value);
+		return this;
+	}
+
+	public CborWriter value(double value) throws IOException {
+		out.write(0xfb);
+		long bits = Double.doubleToLongBits(value);
+		for(int shift = 56; shift >= 0; shift -= 8)
+			out.write((int) (bits >>> shift));
+		return this;
+	}
+
+	public CborWriter value(boolean value) throws IOException {
+		out.write(value ? 0xf5 : 0xf4);
+		return this;
+	}
+
+	public CborWriter nullValue() throws IOException {
+		out.write(0xf6);
+		return this;
+	}
+
+	public CborWriter value(String value) throws IOException {
+		if(value == null)
+			return nullValue();
+
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		head(MAJOR_TEXT, bytes.length);
+		out.write(bytes);
+		return this;
+	}
+
+	public CborWriter value(byte[] value) throws IOException {
+		if(value == null)
+			return nullValue();
+
+		head(MAJOR_BYTES, value.length);
+		out.write(value);
+		return this;
+	}
+
+	/**
+	 * Writes a timestamp as tag 1 with the seconds since the epoch,
+	 * as an integer if there is no fractional part.
+	 */
+	public CborWriter value(Instant value) throws IOException {
+		if(value == null)
+			return nullValue();
+
+		head(MAJOR_TAG, TAG_EPOCH);
+		if(value.getNano() == 0)
+			return value(value.getEpochSecond());
+		else
+			return value(value.getEpochSecond() + value.getNano() / 1e9);
+	}
+
+	/**
+	 * Copies the stream into an indefinite-length byte string, so
+	 * the length does not have to be known in advance.
+	 */
+	public CborWriter value(InputStream in) throws IOException {
+		if(in == null)
+			return nullValue();
+
+		out.write(MAJOR_BYTES << 5 | INDEFINITE);
+		byte[] buffer = new byte[65536];
+		int n;
+		while((n = in.read(buffer)) > 0)
+		{
+			head(MAJOR_BYTES, n);
+			out.write(buffer, 0, n);
+		}
+		out.write(BREAK);
+		return this;
+	}
+
+	/**
+	 * Writes a property value as parsed by msgparser (strings, numbers,
+	 * booleans, timestamps or byte arrays), anything else as text.
+	 */
+	public CborWriter value(Object value) throws IOException {
+		if(value == null)
+			return nullValue();
+		else if(value instanceof String)
+			return value((String) value);
+		else if(value instanceof byte[])
+			return value((byte[]) value);
+		else if(value instanceof Instant)
+			return value((Instant) value);
+		else if(value instanceof Boolean)
+			return value(((Boolean) value).booleanValue());
+		else if(value instanceof Double || value instanceof Float)
+			return value(((Number) value).doubleValue());
+		else if(value instanceof Number)
+			return value(((Number) value).longValue());
+		else
+			return value(value.toString());
+	}
+
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	/**
+	 * Writes the initial byte(s) of an item with the shortest argument encoding.
+	 */
+	private void head(int major, long arg) throws IOException {
+		int mt = major << 5;
+		if(arg < 24)
+		{
+			out.write(mt | (int) arg);
+		}
+		else if(arg < 0x100)
+		{
+			out.write(mt | 24);
+			out.write((int) arg);
+		}
+		else if(arg < 0x10000)
+		{
+			out.write(mt | 25);
+			out.write((int) (arg >> 8));
+			out.write((int) arg);
+		}
+		else if(arg < 0x100000000L)
+		{
+			out.write(mt | 26);
+			for(int shift = 24; shift >= 0; shift -= 8)
+				out.write((int) (arg >>> shift));
+		}
+		else
+		{
+			out.write(mt | 27);
+			for(int shift = 56; shift >= 0; shift -= 8)
+				out.write((int) (arg >>> shift));
+		}
+	}
+}
@@ -0,0 +1,220 @@
+package net.kolola.msgparsercli;
+
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Minimal streaming JSON generator. Values are escaped while they are
+ * written to the underlying writer, so large strings (e.g. message
+ * bodies) are never copied into an intermediate document.
+ * <br /><br />
+ * In pretty mode objects and arrays are indented by four spaces (like
+ * org.json's toString(4)), otherwise everything is written on one line,
+ * which is what NDJSON output needs.
+ */
+public class JsonWriter {
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	protected final Writer out;
+	protected final boolean pretty;
+
+	/**
+	 * Whether the current object or array is still empty, one entry per nesting level
+	 */
+	private boolean[] empty = new boolean[16];
+	private int depth = 0;
+	/**
+	 * Set after a name has been written, the next value belongs to it
+	 */
+	private boolean afterName = false;
+
+	public JsonWriter(Writer out, boolean pretty) {
+		this.out = out;
+		this.pretty = pretty;
+	}
+
+	public JsonWriter beginObject() throws IOException {
+		return open('{');
+	}
+
+	public JsonWriter endObject() throws IOException {
+		return close('}');
+	}
+
+	public JsonWriter beginArray() throws IOException {
+		return open('[');
+	}
+
+	public JsonWriter endArray() throws IOException {
+		return close(']');
+	}
+
+	/**
+	 * Writes the name of the next object member.
+	 */
+	public JsonWriter name(String name) throws IOException {
+		separate();
+		string(name);
+		out.write(pretty ? ": " : ":");
+		afterName = true;
+		return this;
+	}
+
+	public JsonWriter value(String value) throws IOException {
+		separate();
+		if(value == null)
+			out.write("null");
+		else
+			string(value);
+		return this;
+	}
+
+	public JsonWriter value(long value) throws IOException {
+		separate();
+		out.write(Long.toString(value));
+		return this;
+	}
+
+	public JsonWriter value(boolean value) throws IOException {
+		separate();
+		out.write(value ? "true" : "false");
+		return this;
+	}
+
+	/**
+	 * Writes a string, number, boolean, map or collection. Map members
+	 * with a null value are left out (as org.json does).
+	 */
+	public JsonWriter value(Object value) throws IOException {
+		if(value instanceof Map)
+		{
+			beginObject();
+			for(Map.Entry<?, ?> e : ((Map<?, ?>) value).entrySet())
+			{
+				if(e.getValue() != null)
+					name(String.valueOf(e.getKey())).value(e.getValue());
+			}
+			return endObject();
+		}
+		else if(value instanceof Collection)
+		{
+			beginArray();
+			for(Object o : (Collection<?>) value)
+				value(o);
+			return endArray();
+		}
+		else if(value instanceof Number)
+		{
+			separate();
+			out.write(value.toString());
+			return this;
+		}
+		else if(value instanceof Boolean)
+		{
+			return value(((Boolean) value).booleanValue());
+		}
+		else
+		{
+			return value(value == null ? null : value.toString());
+		}
+	}
+
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	private JsonWriter open(char c) throws IOException {
+		separate();
+		out.write(c);
+		if(depth == empty.length)
+		{
+			boolean[] e = new boolean[depth * 2];
+			System.arraycopy(empty, 0, e, 0, depth);
+			empty = e;
+		}
+		empty[depth++] = true;
+		return this;
+	}
+
+	private JsonWriter close(char c) throws IOException {
+		depth--;
+		if(!empty[depth])
+			newline();
+		out.write(c);
+		return this;
+	}
+
+	/**
+	 * Writes the comma and indentation before a value or name, unless
+	 * the value follows a name.
+	 */
+	private void separate() throws IOException {
+		if(afterName)
+		{
+			afterName = false;
+			return;
+		}
+		if(depth == 0)
+			return;
+
+		if(!empty[depth - 1])
+			out.write(',');
+		empty[depth - 1] = false;
+		newline();
+	}
+
+	private void newline() throws IOException {
+		if(!pretty)
+			return;
+
+		out.write('\n');
+		for(int i = 0; i < depth; i++)
+			out.write("    ");
+	}
+
+	/**
+	 * Writes a quoted string, copying runs of characters that need no
+	 * escaping directly.
+	 */
+	private void string(String s) throws IOException {
+		out.write('"');
+
+		int start = 0;
+		int len = s.length();
+		for(int i = 0; i < len; i++)
+		{
+			char c = s.charAt(i);
+			if(c >= 0x20 && c != '"' && c != '\\' && c != '\u2028' && c != '\u2029')
+				continue;
+
+			if(i > start)
+				out.write(s, start, i - start);
+			start = i + 1;
+
+			switch(c)
+			{
+				case '"': out.write("\\\""); break;
+				case '\\': out.write("\\\\"); break;
+				case '\n': out.write("\\n"); break;
+				case '\r': out.write("\\r"); break;
+				case '\t': out.write("\\t"); break;
+				case '\b': out.write("\\b"); break;
+				case '\f': out.write("\\f"); break;
+				default:
+					out.write("\\u");
+					out.write(HEX[(c >> 12) & 0xf]);
+					out.write(HEX[(c >> 8) & 0xf]);
+					out.write(HEX[(c >> 4) & 0xf]);
+					out.write(HEX[c & 0xf]);
+			}
+		}
+		if(len > start)
+			out.write(s, start, len - start);
+
+		out.write('"');
+	}
+}
@@ -0,0 +1,351 @@
+package net.kolola.msgparsercli;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.auxilii.msgparser.*;
+import com.auxilii.msgparser.attachment.Attachment;
+import com.auxilii.msgparser.attachment.FileAttachment;
+import com.auxilii.msgparser.attachment.MsgAttachment;
+
+/**
+ * Keeps parsed messages in memory for the daemon and the HTTP service,
+ * so that a client asking for the info and then for each attachment of
+ * the same file only causes one parse.
+ * <br /><br />
+ * Messages are keyed by canonical path, modification time and size, so
+ * a changed file is parsed again. The cache is bounded by the estimated
+ * memory retained by the messages and by the number of messages, as each
+ * lazily loaded message keeps its .msg file open, and evicts the least
+ * recently used ones. Threads asking for a file that is being parsed wait
+ * for that parse instead of starting their own. A message obtained with {@link #acquire(File)}
+ * must be handed back with {@link #release(Message)}; evicted messages are
+ * only closed once nobody uses them anymore. Callers have to synchronize
+ * on the message while using it, as reading from its container is not
+ * thread-safe.
+ <br /><br />
+ * The RTF body is not read when a message is cached, as converting it
+ * is the most expensive part of parsing. Callers that read the body
+ * report the grown message with {@link #updateSize(Message)}.
+ */
+public class MessageCache {
+
+	protected static final Logger logger = Logger.getLogger(MessageCache.class.getName());
+
+	protected static class Entry {
+		String key;
+		Message message;
+		long bytes;
+		int users = 0;
+		boolean evicted = false;
+		/**
+		 * Set if parsing the file failed, for the threads waiting for it
+		 */
+		Exception failure;
+	}
+
+	/**
+	 * The compressed RTF body, it is decompressed and converted to HTML
+	 * when it is read and therefore only loaded on demand
+	 */
+	protected static final int RTF_COMPRESSED = 0x1009;
+
+	/**
+	 * Default for the maximum number of cached messages, i.e. of open files
+	 */
+	public static final int DEFAULT_MAX_OPEN = 256;
+
+	protected final MsgParser msgp;
+	protected final long maxBytes;
+	protected final int maxOpen;
+
+	/**
+	 * Entries in access order, i.e. the least recently used one comes first
+	 */
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	private final Map<Message, Entry> byMessage = new IdentityHashMap<Message, Entry>();
+	/**
+	 * Entries of files that are being parsed
+	 */
+	private final Map<String, Entry> loading = new HashMap<String, Entry>();
+	private long totalBytes = 0;
+
+	/**
+	 * @param msgp The parser for messages that are not cached yet. It should
+	 *  use lazy loading, otherwise all attachments are kept in memory.
+	 * @param maxBytes The maximum estimated size of all cached messages.
+	 */
+	public MessageCache(MsgParser msgp, long maxBytes) {
+		this(msgp, maxBytes, DEFAULT_MAX_OPEN);
+	}
+
+	/**
+	 * @param msgp The parser for messages that are not cached yet. It should
+	 *  use lazy loading, otherwise all attachments are kept in memory.
+	 * @param maxBytes The maximum estimated size of all cached messages.
+	 * @param maxOpen The maximum number of cached messages. Messages still in
+	 *  use when they are evicted stay open until they are released.
+	 */
+	public MessageCache(MsgParser msgp, long maxBytes, int maxOpen) {
+		this.msgp = msgp;
+		this.maxBytes = maxBytes;
+		this.maxOpen = maxOpen;
+	}
+
+	/**
+	 * Returns the cached message for the file or parses it.
+	 */
+	public Message acquire(File file) throws IOException, UnsupportedOperationException {
+		String key = file.getCanonicalPath() + "|" + file.lastModified() + "|" + file.length();
+
+		Entry e;
+		synchronized(this)
+		{
+			e = entries.get(key);
+			if(e != null)
+			{
+				e.users++;
+				return e.message;
+			}
+
+			e = loading.get(key);
+			if(e != null)
+				return await(e);
+
+			// we parse the file, others asking for it wait for us
+			e = new Entry();
+			e.key = key;
+			e.users = 1;
+			loading.put(key, e);
+		}
+
+		Message msg;
+		long bytes;
+		try
+		{
+			msg = msgp.parseMsg(file);
+			try
+			{
+				// load everything now but the RTF body, so that later on only
+				// attachments and, for the body, the RTF are read
+				preload(msg);
+				bytes = estimateSize(msg);
+			}
+			catch (RuntimeException ex)
+			{
+				close(msg);
+				throw ex;
+			}
+		}
+		catch (IOException | RuntimeException ex)
+		{
+			synchronized(this)
+			{
+				loading.remove(key);
+				e.failure = ex;
+				notifyAll();
+			}
+			throw ex;
+		}
+
+		List<Entry> toClose = new ArrayList<Entry>();
+		synchronized(this)
+		{
+			loading.remove(key);
+			e.message = msg;
+			e.bytes = bytes;
+			entries.put(key, e);
+			byMessage.put(msg, e);
+			totalBytes += bytes;
+			notifyAll();
+
+			evict(toClose);
+		}
+
+		for(Entry c : toClose)
+			close(c.message);
+
+		return msg;
+	}
+
+	/**
+	 * Waits until another thread has parsed the file of the entry. Has to be
+	 * called while holding the lock.
+	 */
+	private Message await(Entry e) throws IOException {
+		e.users++;
+		try
+		{
+			while(e.message == null && e.failure == null)
+				wait();
+		}
+		catch (InterruptedException ex)
+		{
+			e.users--;
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for " + e.key);
+		}
+
+		if(e.failure instanceof IOException)
+			throw (IOException) e.failure;
+		if(e.failure != null)
+			throw (RuntimeException) e.failure;
+		// we are counted as a user, so the message has not been closed even if it was evicted
+		return e.message;
+	}
+
+	/**
+	 * Hands back a message obtained by {@link #acquire(File)}.
+	 */
+	public void release(Message msg) {
+		boolean close;
+		synchronized(this)
+		{
+			Entry e = byMessage.get(msg);
+			if(e == null)
+				return;
+
+			e.users--;
+			close = e.evicted && e.users == 0;
+			if(close)
+				byMessage.remove(msg);
+		}
+
+		if(close)
+			close(msg);
+	}
+
+	/**
+	 * Updates the estimated size of a cached message after more of it has
+	 * been loaded, i.e. the RTF body has been converted. Has to be called
+	 * while synchronizing on the message.
+	 */
+	public void updateSize(Message msg) {
+		long bytes = estimateSize(msg);
+
+		List<Entry> toClose = new ArrayList<Entry>();
+		synchronized(this)
+		{
+			Entry e = byMessage.get(msg);
+			if(e == null || e.evicted || e.bytes == bytes)
+				return;
+
+			totalBytes += bytes - e.bytes;
+			e.bytes = bytes;
+			evict(toClose);
+		}
+
+		for(Entry c : toClose)
+			close(c.message);
+	}
+
+	/**
+	 * Removes least recently used entries until the limit is met. Entries
+	 * that are not in use are added to the given list to be closed outside
+	 * of the lock, the others are closed when they are released.
+	 */
+	private void evict(List<Entry> toClose) {
+		Iterator<Entry> it = entries.values().iterator();
+		while((totalBytes > maxBytes || entries.size() > maxOpen) && it.hasNext())
+		{
+			Entry e = it.next();
+			it.remove();
+			totalBytes -= e.bytes;
+			e.evicted = true;
+
+			if(e.users == 0)
+			{
+				byMessage.remove(e.message);
+				toClose.add(e);
+			}
+		}
+	}
+
+	private static void close(Message msg) {
+		try
+		{
+			msg.close();
+		}
+		catch (IOException e)
+		{
+			logger.log(Level.FINE, "Could not close message", e);
+		}
+	}
+
+	/**
+	 * Reads all properties of the message and its attached messages,
+	 * except for the RTF body.
+	 */
+	protected static void preload(Message msg) {
+		msg.loadLazyPropertiesExcept(RTF_COMPRESSED);
+		for(Attachment a : msg.getAttachments())
+		{
+			if(a instanceof MsgAttachment)
+				preload(((MsgAttachment) a).getMessage());
+		}
+	}
+
+	/**
+	 * Estimates the memory retained by a message: its property values
+	 * read so far, those of its recipients and attachments held in memory,
+	 * including attached messages. Nothing is read from the .msg file.
+	 */
+	protected static long estimateSize(Message msg) {
+		long bytes = 1024;
+
+		Set<Integer> codes = msg.getLoadedPropertyCodes();
+		for(Integer code : codes)
+			bytes += estimateSize(msg.getPropertyValue(code));
+		if(codes.contains(RTF_COMPRESSED))
+		{
+			// the decompressed RTF and its conversion, already loaded
+			bytes += estimateSize(msg.getBodyRTF());
+			bytes += estimateSize(msg.getConvertedBodyHTML());
+		}
+
+		for(RecipientEntry r : msg.getRecipients())
+		{
+			bytes += 256;
+			for(Integer code : r.getPropertyCodes())
+				bytes += estimateSize(r.getPropertyValue(code));
+		}
+
+		for(Attachment a : msg.getAttachments())
+		{
+			bytes += 256;
+			if(a instanceof FileAttachment)
+			{
+				FileAttachment fa = (FileAttachment) a;
+				if(fa.isDataInMemory())
+					bytes += fa.getSize();
+			}
+			else if(a instanceof MsgAttachment)
+			{
+				bytes += estimateSize(((MsgAttachment) a).getMessage());
+			}
+		}
+
+		return bytes;
+	}
+
+	private static long estimateSize(Object value) {
+		if(value instanceof String)
+			return 40 + 2L * ((String) value).length();
+		else if(value instanceof byte[])
+			return 16 + ((byte[]) value).length;
+		else
+			return 16;
+	}
+}
@@ -1,54 +1,206 @@
 package net.kolola.msgparsercli;
 
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Base64;
-import java.util.Base64.Encoder;
 import java.util.Date;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.ConsoleHandler;
 import java.util.logging.Handler;
 import java.util.logging.Logger;
 
-import org.json.JSONException;
-import org.json.JSONObject;
-
 import joptsimple.OptionParser;
 import joptsimple.OptionSet;
 
 import com.auxilii.msgparser.*;
 import com.auxilii.msgparser.attachment.Attachment;
 import com.auxilii.msgparser.attachment.FileAttachment;
+import com.auxilii.msgparser.attachment.MsgAttachment;
+import com.auxilii.msgparser.rtf.StreamingRTF2HTMLConverter;
 
 public class MsgParseCLI {
+	
+	/**
+	 * Version of the -i and -b output stored in the --cache directory. It has
+	 * to be increased whenever the output for the same file changes, e.g.
+	 * through a change of an RTF converter or a new field. The converter
+	 * chosen with --rtf-converter is part of the cache key as well.
+	 */
+	protected static final int OUTPUT_VERSION = 3;
 
 	public static void main(String[] args) {
 		
 		// Parse options
 
-        OptionParser parser = new OptionParser("f:a:bi?*");
+        OptionParser parser = new OptionParser("f:a:o:x:d:w:c:rsbi?*");
+        parser.accepts("cbor");
+        parser.accepts("cache").withRequiredArg();
+        parser.accepts("cache-size").withRequiredArg();
+        parser.accepts("memory-cache").withRequiredArg();
+        parser.accepts("dedup");
+        parser.accepts("stats");
+        parser.accepts("rtf-converter").withRequiredArg();
         OptionSet options = parser.parse(args);
         
-        // Get the filename
-        if(!options.has("f"))
+        // Run as a daemon that serves requests over a unix domain socket
+        if(options.has("d"))
+        {
+        	MsgParser msgp = createParser(options);
+        	
+        	try
+        	{
+        		MsgParseDaemon daemon = new MsgParseDaemon(msgp, Paths.get((String) options.valueOf("d")));
+        		daemon.setCache(openCache(options));
+        		daemon.setMessageCache(createMessageCache(msgp, options));
+        		daemon.run();
+        	}
+        	catch (IOException e)
+        	{
+        		System.err.print("Could not listen on socket " + options.valueOf("d") + ": " + e.getMessage());
+        		System.exit(1);
+        	}
+        	return;
+        }
+        
+        // Run as a local HTTP service
+        if(options.has("w"))
+        {
+        	MsgParser msgp = createParser(options);
+        	
+        	try
+        	{
+        		MsgParseHttpServer server = new MsgParseHttpServer(msgp, Integer.parseInt((String) options.valueOf("w")));
+        		server.setCache(openCache(options));
+        		server.setMessageCache(createMessageCache(msgp, options));
+        		server.start();
+        	}
+        	catch (NumberFormatException | IOException e)
+        	{
+        		System.err.print("Could not listen on port " + options.valueOf("w") + ": " + e.getMessage());
+        		System.exit(1);
+        	}
+        	return;
+        }
+        
+        // Parse all .msg files below a directory in parallel
+        if(options.has("c"))
+        {
+        	MsgParser msgp = createParser(options);
+        	
+        	File root = new File((String) options.valueOf("c"));
+        	if(!root.isDirectory())
+        	{
+        		System.err.print("Directory " + root + " does not exist");
+        		System.exit(1);
+        	}
+        	
+        	new MsgParseCrawler(msgp, stdoutWriter()).crawl(root.toPath());
+        	return;
+        }
+        
+        // Get the filenames (-f can be repeated, further files may follow
+        // as plain arguments or, with -s, as one path per line on stdin)
+        List<String> files = new ArrayList<String>();
+        for(Object f : options.valuesOf("f"))
+        	files.add((String) f);
+        for(Object f : options.nonOptionArguments())
+        	files.add((String) f);
+        
+        if(options.has("s"))
+        {
+        	try
+        	{
+        		BufferedReader in = new BufferedReader(new InputStreamReader(System.in, "UTF-8"));
+        		String line;
+        		while((line = in.readLine()) != null)
+        		{
+        			if(line.trim().length() > 0)
+        				files.add(line.trim());
+        		}
+        	}
+        	catch (IOException e)
+        	{
+        		System.err.print("Could not read file names from stdin");
+        		System.exit(1);
+        	}
+        }
+        
+        if(files.isEmpty())
         {
         	System.err.print("Specify a msg file with the -f option");
         	System.exit(0);
         }
         
+		MsgParser msgp = createParser(options);
         
-        File file = new File((String) options.valueOf("f"));
-
-		MsgParser msgp = new MsgParser();
+        if(files.size() == 1 && !options.has("s"))
+        {
+        	processFile(msgp, new File(files.get(0)), options);
+        }
+        else
+        {
+        	processBatch(msgp, files, options);
+        }
+	}
+	
+	/**
+	 * Handles a single .msg file, the output depends on the given options.
+	 */
+	protected static void processFile(MsgParser msgp, File file, OptionSet options) {
+		// -i and -b can be answered from the cache without parsing
+		String kind = null;
+		if(options.has("i"))
+			kind = "info";
+		else if(options.has("b") && !options.has("a") && !options.has("x"))
+			kind = "body";
+		
+		if(kind != null && options.has("cache") && !options.has("cbor"))
+		{
+			try
+			{
+				byte[] output = getOutput(msgp, file, kind, openCache(options));
+				Writer out = stdoutWriter();
+				out.write(new String(output, StandardCharsets.UTF_8));
+				out.flush();
+			}
+			catch (UnsupportedOperationException | IOException e)
+			{
+				System.err.print("File does not exist or is not a valid msg file");
+				System.exit(1);
+			}
+			return;
+		}
+		
+		// --stats prints a profile of the file to stderr
+		ParseProfile profile = options.has("stats") ? new ParseProfile() : null;
 		Message msg = null;
 		
 		try
 		{
-			msg = msgp.parseMsg(file);
+			msg = profile == null ? msgp.parseMsg(file) : msgp.parseMsg(file, profile.getOptions());
 		}
 		catch (UnsupportedOperationException | IOException e)
 		{
@@ -56,125 +208,1039 @@ public class MsgParseCLI {
 			//e.printStackTrace();
 			System.exit(1);
 		}
+		
+		long outputStart = System.nanoTime();
         
         // Show info (as JSON)
         if(options.has("i"))
         {
-			Map<String, Object> data = new HashMap<String, Object>(); 
-			
-			String date;
-			
 			try
 			{
-				Date st = msg.getClientSubmitTime();
-				date = st.toString();
-			}
-			catch(Exception g)
-			{
-				try
+				SerializeEvent event = new SerializeEvent();
+				event.begin();
+				CountingOutputStream counter = new CountingOutputStream(System.out);
+				if(options.has("cbor"))
 				{
-					date = msg.getDate().toString();
+					OutputStream out = new BufferedOutputStream(counter, 65536);
+					writeCborInfo(msg, new CborWriter(out));
+					out.flush();
 				}
-				catch(Exception e)
-				{
-					date = "[UNAVAILABLE]";
-				}
-			}
-			
-			data.put("date", date);
-			data.put("subject", msg.getSubject());
-			data.put("from", "\"" + msg.getFromName() + "\" <" + msg.getFromEmail() + ">");
-			data.put("to", "\"" + msg.getToRecipient().toString());
-			
-			String cc = "";
-			for(RecipientEntry r : msg.getCcRecipients())
-			{
-				if(cc.length() > 0)
-					cc.concat("; ");
-				
-				cc.concat(r.toString());
-			}
-			
-			data.put("cc", cc);
-			
-			data.put("body_html", msg.getBodyHTML());
-			data.put("body_rtf", msg.getBodyRTF());
-			data.put("body_text", msg.getBodyText());
-			
-			// Attachments
-			List<Map<String, String>> atts = new ArrayList<Map<String,String>>();
-			for(Attachment a : msg.getAttachments())
-			{
-				HashMap<String, String> info = new HashMap<String, String>();
-				
-				if(a instanceof FileAttachment)
-	        	{
-					FileAttachment fa = (FileAttachment) a;
-					
-					info.put("type", "file");
-					info.put("filename", fa.getFilename());
-					info.put("size",  Long.toString(fa.getSize()));
-	        	}
 				else
 				{
-					info.put("type", "message");
+					Writer out = stdoutWriter(counter);
+					new JsonWriter(out, true).value(getInfo(msg));
+					out.flush();
 				}
-				
-				atts.add(info);
+				commit(event, file.getPath(), options.has("cbor") ? "cbor" : "json", counter.getCount());
 			}
-			
-			data.put("attachments", atts);
-			
-			JSONObject json = new JSONObject(data);
-			
-			try
-			{
-				System.out.print(json.toString(4));
-			}
-			catch (JSONException e)
+			catch (IOException e)
 			{
 				e.printStackTrace();
 			}
         }
         
-        // OR return an attachment in BASE64
+        // OR return an attachment in BASE64 (or as raw bytes with -r / -o <file>)
         else if(options.has("a"))
         {
         	Integer anum = Integer.parseInt((String) options.valueOf("a"));
         	
-        	Encoder b64 = Base64.getEncoder();
-        	
-        	List<Attachment> atts = msg.getAttachments();
-        	
-        	if(atts.size() <= anum)
+        	try
         	{
-        		System.out.print("Attachment " + anum.toString() + " does not exist");
+        		if(options.has("o"))
+        		{
+        			// write the raw bytes to the given file
+        			OutputStream out = new FileOutputStream((String) options.valueOf("o"));
+        			try
+        			{
+        				printAttachment(msg, anum, true, out);
+        			}
+        			finally
+        			{
+        				out.close();
+        			}
+        		}
+        		else
+        		{
+        			printAttachment(msg, anum, options.has("r"), System.out);
+        		}
         	}
+        	catch (IllegalArgumentException e)
+        	{
+        		System.err.print(e.getMessage());
+        		System.exit(1);
+        	}
+        	catch (IOException e)
+        	{
+        		System.err.print("Attachment " + anum.toString() + " could not be written");
+        		System.exit(1);
+        	}
+        }
+        // OR write all attachments (including those of attached messages) into a directory
+        else if(options.has("x"))
+        {
+        	File dir = new File((String) options.valueOf("x"));
         	
-        	Attachment att = atts.get(anum);
+        	if(!dir.isDirectory() && !dir.mkdirs())
+        	{
+        		System.err.print("Directory " + dir.getPath() + " could not be created");
+        		System.exit(1);
+        	}
         	
-        	if(att instanceof FileAttachment)
+        	if(options.has("dedup"))
         	{
-        		FileAttachment fatt = (FileAttachment) att;
-        		System.out.print(b64.encodeToString(fatt.getData()));
+        		if(!storeAttachments(msg, file.getPath(), openAttachmentStore(dir)))
+        		{
+        			System.exit(1);
+        		}
         	}
-        	else
+        	else if(!extractAttachments(msg, dir))
         	{
-        		System.err.print("Attachment " + anum.toString() + " is a message - That's not implemented yet :(");
+        		System.exit(1);
         	}
         }
         // OR print the message body
         else if(options.has("b"))
         {
-        	System.out.print(msg.getConvertedBodyHTML());
+        	try
+        	{
+        		// UTF-8 like the cached output, see renderOutput
+        		Writer out = stdoutWriter();
+        		out.write(String.valueOf(msg.getConvertedBodyHTML()));
+        		out.flush();
+        	}
+        	catch (IOException e)
+        	{
+        		e.printStackTrace();
+        	}
         }
         else
         {
-        	System.err.print("Specify either -i to return msg information or -a <num> to print an attachment as a BASE64 string");
+        	System.err.print("Specify either -i to return msg information or -a <num> to print an attachment as a BASE64 string (-r to print raw bytes, -o <file> to write them to a file)");
+        }
+        
+        if(profile != null)
+        {
+        	System.out.flush();
+        	profile.addOutput(System.nanoTime() - outputStart);
+        	profile.setAttachmentBytes(msg);
+        	profile.print(file.getPath(), System.err);
+        }
+        
+        try
+        {
+        	msg.close();
+        }
+        catch (IOException e)
+        {
+        	// ignore
         }
        
 	}
 	
+	/**
+	 * Handles many .msg files with one parser. For -i, one JSON record is
+	 * printed per line and file; files that cannot be parsed result in a
+	 * record with an "error" field instead of aborting the run.
+	 */
+	protected static void processBatch(MsgParser msgp, List<String> files, OptionSet options) {
+		if(options.has("x") && options.has("dedup") && !options.has("i"))
+		{
+			processBatchDedup(msgp, files, new File((String) options.valueOf("x")));
+			return;
+		}
+		
+		if(!options.has("i"))
+		{
+			System.err.print("Only -i (or -x with --dedup) is supported for more than one file");
+			System.exit(1);
+		}
+		
+		if(options.has("cbor"))
+		{
+			processBatchCbor(msgp, files, options.has("stats"));
+			return;
+		}
+		
+		// one compact record per line (NDJSON), each line is flushed
+		try
+		{
+			CountingOutputStream counter = new CountingOutputStream(System.out);
+			Writer out = stdoutWriter(counter);
+			for(String path : files)
+			{
+				ParseProfile profile = options.has("stats") ? new ParseProfile() : null;
+				Map<String, Object> record = getRecord(msgp, path, profile);
+				
+				SerializeEvent event = new SerializeEvent();
+				event.begin();
+				long before = counter.getCount();
+				long outputStart = System.nanoTime();
+				new JsonWriter(out, false).value(record);
+				out.write('\n');
+				out.flush();
+				commit(event, path, "json", counter.getCount() - before);
+				
+				if(profile != null)
+				{
+					profile.addOutput(System.nanoTime() - outputStart);
+					profile.print(path, System.err);
+				}
+			}
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Stores the attachments of all files in a deduplicating store,
+	 * see {@link #storeAttachments(Message, String, AttachmentStore)}.
+	 */
+	protected static void processBatchDedup(MsgParser msgp, List<String> files, File dir) {
+		AttachmentStore store = openAttachmentStore(dir);
+		
+		boolean success = true;
+		for(String path : files)
+		{
+			Message msg;
+			try
+			{
+				msg = msgp.parseMsg(new File(path));
+			}
+			catch (UnsupportedOperationException | IOException e)
+			{
+				Map<String, Object> data = new LinkedHashMap<String, Object>();
+				data.put("file", path);
+				data.put("error", "File does not exist or is not a valid msg file");
+				printRecord(data);
+				success = false;
+				continue;
+			}
+			
+			try
+			{
+				success &= storeAttachments(msg, path, store);
+			}
+			finally
+			{
+				try
+				{
+					msg.close();
+				}
+				catch (IOException e)
+				{
+					// ignore
+				}
+			}
+		}
+		
+		if(!success)
+			System.exit(1);
+	}
+	
+	/**
+	 * Writes one CBOR record per file to stdout, back to back (a CBOR
+	 * sequence). Each record is rendered completely before it is written,
+	 * so files that cannot be parsed or processed yield a map with "file"
+	 * and "error" instead of a truncated record.
+	 * 
+	 * @param stats Whether to print the --stats profile of each file to stderr
+	 */
+	protected static void processBatchCbor(MsgParser msgp, List<String> files, boolean stats) {
+		OutputStream out = new BufferedOutputStream(System.out, 65536);
+		ByteArrayOutputStream record = new ByteArrayOutputStream();
+		try
+		{
+			for(String path : files)
+			{
+				ParseProfile profile = stats ? new ParseProfile() : null;
+				SerializeEvent event = new SerializeEvent();
+				String error = null;
+				
+				record.reset();
+				Message msg = null;
+				try
+				{
+					msg = profile == null ? msgp.parseMsg(new File(path)) : msgp.parseMsg(new File(path), profile.getOptions());
+					
+					event.begin();
+					long outputStart = System.nanoTime();
+					writeCborInfo(msg, new CborWriter(record), path);
+					if(profile != null)
+					{
+						profile.addOutput(System.nanoTime() - outputStart);
+						profile.setAttachmentBytes(msg);
+					}
+				}
+				catch (UnsupportedOperationException | IOException e)
+				{
+					error = "File does not exist or is not a valid msg file";
+				}
+				catch (RuntimeException e)
+				{
+					error = "File could not be processed: " + e;
+				}
+				finally
+				{
+					if(msg != null)
+					{
+						try
+						{
+							msg.close();
+						}
+						catch (IOException e)
+						{
+							// ignore
+						}
+					}
+				}
+				
+				if(error != null)
+				{
+					record.reset();
+					new CborWriter(record).beginMap()
+						.value("file").value(path)
+						.value("error").value(error)
+						.end();
+				}
+				
+				record.writeTo(out);
+				if(error == null)
+					commit(event, path, "cbor", record.size());
+				if(profile != null)
+					profile.print(path, System.err);
+			}
+			out.flush();
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Creates a lazily loading parser with the RTF converter given
+	 * with --rtf-converter.
+	 */
+	protected static MsgParser createParser(OptionSet options) {
+		MsgParser msgp = new MsgParser();
+		msgp.setLazyLoading(true);
+		
+		String name = getRtfConverterName(options);
+		if(name.equals("streaming"))
+		{
+			msgp.setRtf2htmlConverter(new StreamingRTF2HTMLConverter());
+		}
+		else if(!name.equals("simple"))
+		{
+			System.err.print("Unknown RTF converter " + name + ", use simple or streaming");
+			System.exit(1);
+		}
+		return msgp;
+	}
+	
+	/**
+	 * @return The RTF converter given with --rtf-converter, "simple" by default
+	 */
+	protected static String getRtfConverterName(OptionSet options) {
+		if(!options.has("rtf-converter"))
+			return "simple";
+		return ((String) options.valueOf("rtf-converter")).toLowerCase();
+	}
+	
+	/**
+	 * Opens the cache given with --cache (limited to --cache-size MB,
+	 * 512 MB by default).
+	 * 
+	 * @return The cache or null if no cache has been requested
+	 */
+	protected static ParseCache openCache(OptionSet options) {
+		if(!options.has("cache"))
+			return null;
+		
+		long maxBytes = 512L << 20;
+		try
+		{
+			if(options.has("cache-size"))
+				maxBytes = Long.parseLong((String) options.valueOf("cache-size")) << 20;
+			
+			return new ParseCache(new File((String) options.valueOf("cache")), maxBytes, OUTPUT_VERSION + "-" + getRtfConverterName(options));
+		}
+		catch (NumberFormatException | IOException e)
+		{
+			System.err.print("Could not open cache: " + e.getMessage());
+			System.exit(1);
+			return null;
+		}
+	}
+	
+	/**
+	 * Creates the in-memory message cache for the daemon and the HTTP
+	 * service, limited to --memory-cache MB.
+	 * 
+	 * @return The cache or null if no cache has been requested
+	 */
+	protected static MessageCache createMessageCache(MsgParser msgp, OptionSet options) {
+		if(!options.has("memory-cache"))
+			return null;
+		
+		try
+		{
+			return new MessageCache(msgp, Long.parseLong((String) options.valueOf("memory-cache")) << 20);
+		}
+		catch (NumberFormatException e)
+		{
+			System.err.print("Invalid cache size " + options.valueOf("memory-cache"));
+			System.exit(1);
+			return null;
+		}
+	}
+	
+	/**
+	 * Returns the output of -i ("info") or -b ("body") for a file as UTF-8.
+	 * If a cache is given, the file is only parsed if the output for its
+	 * content is not cached yet.
+	 * 
+	 * @param cache The cache or null
+	 */
+	protected static byte[] getOutput(MsgParser msgp, File file, String kind, ParseCache cache) throws IOException, UnsupportedOperationException {
+		String hash = null;
+		if(cache != null)
+		{
+			hash = cache.hash(file);
+			byte[] cached = cache.get(hash, kind);
+			if(cached != null)
+				return cached;
+		}
+		
+		Message msg = msgp.parseMsg(file);
+		byte[] output;
+		try
+		{
+			output = renderOutput(msg, kind);
+		}
+		finally
+		{
+			msg.close();
+		}
+		
+		if(cache != null)
+			cache.put(hash, kind, output);
+		return output;
+	}
+	
+	/**
+	 * Renders the output of -i ("info") or -b ("body") as UTF-8.
+	 */
+	protected static byte[] renderOutput(Message msg, String kind) throws IOException {
+		if(kind.equals("body"))
+			return String.valueOf(msg.getConvertedBodyHTML()).getBytes(StandardCharsets.UTF_8);
+		
+		SerializeEvent event = new SerializeEvent();
+		event.begin();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		Writer out = new OutputStreamWriter(bytes, StandardCharsets.UTF_8);
+		new JsonWriter(out, true).value(getInfo(msg));
+		out.flush();
+		commit(event, msg.getSource(), "json", bytes.size());
+		return bytes.toByteArray();
+	}
+	
+	/**
+	 * Commits a JFR event for writing the output of a file if it is recorded.
+	 */
+	protected static void commit(SerializeEvent event, String file, String format, long bytes) {
+		event.end();
+		if(event.shouldCommit())
+		{
+			event.file = file;
+			event.format = format;
+			event.bytes = bytes;
+			event.commit();
+		}
+	}
+	
+	/**
+	 * A buffered writer on stdout, it has to be flushed when done.
+	 */
+	protected static Writer stdoutWriter() {
+		return stdoutWriter(System.out);
+	}
+	
+	/**
+	 * A buffered UTF-8 writer on the given stream (e.g. stdout), it has to be
+	 * flushed when done. The JSON output is always UTF-8, whatever the locale.
+	 */
+	protected static Writer stdoutWriter(OutputStream out) {
+		return new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 65536);
+	}
+	
+	/**
+	 * Collects the information printed by -i for one file of a batch,
+	 * together with a "file" field. If the file cannot be parsed, the
+	 * record contains an "error" field instead.
+	 */
+	protected static Map<String, Object> getRecord(MsgParser msgp, String path) {
+		return getRecord(msgp, path, null);
+	}
+	
+	/**
+	 * Like {@link #getRecord(MsgParser, String)}, filling the given profile.
+	 * 
+	 * @param profile The profile or null
+	 */
+	protected static Map<String, Object> getRecord(MsgParser msgp, String path, ParseProfile profile) {
+		Map<String, Object> data = new LinkedHashMap<String, Object>();
+		data.put("file", path);
+		
+		Message msg = null;
+		try
+		{
+			msg = profile == null ? msgp.parseMsg(new File(path)) : msgp.parseMsg(new File(path), profile.getOptions());
+			data.putAll(getInfo(msg));
+			if(profile != null)
+				profile.setAttachmentBytes(msg);
+		}
+		catch (UnsupportedOperationException | IOException e)
+		{
+			data.put("error", "File does not exist or is not a valid msg file");
+		}
+		catch (RuntimeException e)
+		{
+			data.put("error", "File could not be processed: " + e);
+		}
+		finally
+		{
+			if(msg != null)
+			{
+				try
+				{
+					msg.close();
+				}
+				catch (IOException e)
+				{
+					// ignore
+				}
+			}
+		}
+		
+		return data;
+	}
+	
+	/**
+	 * Collects the information printed by -i.
+	 */
+	protected static Map<String, Object> getInfo(Message msg) {
+		Map<String, Object> data = new LinkedHashMap<String, Object>(); 
+		
+		String date;
+		
+		try
+		{
+			Date st = msg.getClientSubmitTime();
+			date = st.toString();
+		}
+		catch(Exception g)
+		{
+			try
+			{
+				date = msg.getDate().toString();
+			}
+			catch(Exception e)
+			{
+				date = "[UNAVAILABLE]";
+			}
+		}
+		
+		data.put("date", date);
+		data.put("subject", msg.getSubject());
+		data.put("from", "\"" + msg.getFromName() + "\" <" + msg.getFromEmail() + ">");
+		data.put("to", "\"" + msg.getToRecipient().toString());
+		
+		String cc = "";
+		for(RecipientEntry r : msg.getCcRecipients())
+		{
+			if(cc.length() > 0)
+				cc.concat("; ");
+			
+			cc.concat(r.toString());
+		}
+		
+		data.put("cc", cc);
+		
+		data.put("body_html", msg.getBodyHTML());
+		data.put("body_rtf", msg.getBodyRTF());
+		data.put("body_text", msg.getBodyText());
+		
+		// Attachments
+		List<Map<String, String>> atts = new ArrayList<Map<String,String>>();
+		for(Attachment a : msg.getAttachments())
+		{
+			Map<String, String> info = new LinkedHashMap<String, String>();
+			
+			if(a instanceof FileAttachment)
+        	{
+				FileAttachment fa = (FileAttachment) a;
+				
+				info.put("type", "file");
+				info.put("filename", fa.getFilename());
+				info.put("size",  Long.toString(fa.getSize()));
+        	}
+			else
+			{
+				info.put("type", "message");
+			}
+			
+			atts.add(info);
+		}
+		
+		data.put("attachments", atts);
+		
+		return data;
+	}
+	
+	/**
+	 * Writes the information of -i as CBOR for machine consumers: dates are
+	 * epoch timestamps (tag 1), all message properties are included with
+	 * their numeric codes as keys (except the bodies, which are written
+	 * once as fields) and file attachments are embedded as byte strings.
+	 * Attached messages are nested records.
+	 */
+	protected static void writeCborInfo(Message msg, CborWriter cbor) throws IOException {
+		writeCborInfo(msg, cbor, null);
+	}
+	
+	protected static void writeCborInfo(Message msg, CborWriter cbor, String file) throws IOException {
+		cbor.beginMap();
+		
+		if(file != null)
+			cbor.value("file").value(file);
+		
+		Instant date = msg.getClientSubmitInstant();
+		if(date == null && msg.getDate() != null)
+			date = msg.getDate().toInstant();
+		if(date != null)
+			cbor.value("date").value(date);
+		
+		writeCborField(cbor, "subject", msg.getSubject());
+		writeCborField(cbor, "from_name", msg.getFromName());
+		writeCborField(cbor, "from_email", msg.getFromEmail());
+		writeCborField(cbor, "body_html", msg.getBodyHTML());
+		writeCborField(cbor, "body_rtf", msg.getBodyRTF());
+		writeCborField(cbor, "body_text", msg.getBodyText());
+		
+		cbor.value("properties").beginMap();
+		for(Integer code : msg.getPropertyCodes())
+		{
+			if(code != 0x1000 && code != 0x1009 && code != 0x1013)
+				cbor.value(code.longValue()).value(msg.getPropertyValue(code));
+		}
+		cbor.end();
+		
+		cbor.value("recipients").beginArray();
+		for(RecipientEntry r : msg.getRecipients())
+		{
+			cbor.beginMap();
+			writeCborField(cbor, "name", r.getToName());
+			writeCborField(cbor, "email", r.getToEmail());
+			cbor.value("properties").beginMap();
+			for(Integer code : r.getPropertyCodes())
+				cbor.value(code.longValue()).value(r.getPropertyValue(code));
+			cbor.end();
+			cbor.end();
+		}
+		cbor.end();
+		
+		cbor.value("attachments").beginArray();
+		for(Attachment a : msg.getAttachments())
+		{
+			cbor.beginMap();
+			if(a instanceof FileAttachment)
+			{
+				FileAttachment fa = (FileAttachment) a;
+				
+				cbor.value("type").value("file");
+				writeCborField(cbor, "filename", fa.getLongFilename() != null ? fa.getLongFilename() : fa.getFilename());
+				writeCborField(cbor, "mime", fa.getMimeTag());
+				cbor.value("size").value(fa.getSize());
+				
+				InputStream in = fa.getDataStream();
+				if(in != null)
+				{
+					try
+					{
+						cbor.value("data").value(in);
+					}
+					finally
+					{
+						in.close();
+					}
+				}
+			}
+			else
+			{
+				cbor.value("type").value("message");
+				cbor.value("message");
+				writeCborInfo(((MsgAttachment) a).getMessage(), cbor, null);
+			}
+			cbor.end();
+		}
+		cbor.end();
+		
+		cbor.end();
+	}
+	
+	/**
+	 * Writes a text field of a CBOR map unless the value is null.
+	 */
+	private static void writeCborField(CborWriter cbor, String name, String value) throws IOException {
+		if(value != null)
+			cbor.value(name).value(value);
+	}
+	
+	/**
+	 * Writes an attachment of the message, either as BASE64 or
+	 * as raw bytes.
+	 * 
+	 * @throws IllegalArgumentException if there is no such file attachment
+	 */
+	protected static void printAttachment(Message msg, int anum, boolean raw, OutputStream out) throws IOException {
+		printAttachment(msg, anum, raw, out, msg);
+	}
+	
+	/**
+	 * Writes an attachment of the message while holding the lock only
+	 * for the reads from the .msg file, so that other threads can use
+	 * the message while the attachment is written.
+	 * 
+	 * @throws IllegalArgumentException if there is no such file attachment
+	 */
+	protected static void printAttachment(Message msg, int anum, boolean raw, OutputStream out, Object lock) throws IOException {
+		List<Attachment> atts = msg.getAttachments();
+		
+		if(anum < 0 || atts.size() <= anum)
+			throw new IllegalArgumentException("Attachment " + anum + " does not exist");
+		
+		Attachment att = atts.get(anum);
+		
+		if(!(att instanceof FileAttachment))
+			throw new IllegalArgumentException("Attachment " + anum + " is a message - That's not implemented yet :(");
+		
+		InputStream in;
+		synchronized(lock)
+		{
+			in = ((FileAttachment) att).getDataStream();
+		}
+		printAttachment(in, raw, out, lock);
+	}
+	
+	/**
+	 * Writes the data of an attachment from a stream obtained by
+	 * {@link FileAttachment#getDataStream()}, either as BASE64 or as
+	 * raw bytes, and closes the stream.
+	 * 
+	 * @param in The data or null if the attachment has none
+	 */
+	protected static void printAttachment(InputStream in, boolean raw, OutputStream out, Object lock) throws IOException {
+		if(raw)
+		{
+			copy(in, out, lock);
+		}
+		else
+		{
+			// encode chunk by chunk while reading the attachment
+			OutputStream b64 = Base64.getEncoder().wrap(new NonClosingOutputStream(out));
+			copy(in, b64, lock);
+			b64.close();
+		}
+	}
+	
+	/**
+	 * Copies the content of an attachment to the given stream
+	 * using a fixed size buffer, i.e. the attachment is never
+	 * held in memory as a whole.
+	 */
+	protected static void writeAttachment(FileAttachment fatt, OutputStream out) throws IOException {
+		writeAttachment(fatt, out, fatt);
+	}
+	
+	/**
+	 * Copies the content of an attachment to the given stream while
+	 * holding the lock for each read. Reading from the same .msg file
+	 * is not thread safe, writing to different files is.
+	 */
+	protected static void writeAttachment(FileAttachment fatt, OutputStream out, Object lock) throws IOException {
+		InputStream in;
+		synchronized(lock)
+		{
+			in = fatt.getDataStream();
+		}
+		copy(in, out, lock);
+	}
+	
+	/**
+	 * Copies the stream, see {@link #writeAttachment(FileAttachment, OutputStream, Object)},
+	 * and closes it.
+	 * 
+	 * @param in The stream or null to write nothing
+	 */
+	protected static void copy(InputStream in, OutputStream out, Object lock) throws IOException {
+		if(in == null)
+			return;
+		
+		try
+		{
+			byte[] buffer = new byte[65536];
+			int read;
+			while(true)
+			{
+				synchronized(lock)
+				{
+					read = in.read(buffer);
+				}
+				if(read <= 0)
+					break;
+				
+				out.write(buffer, 0, read);
+			}
+			out.flush();
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+	
+	/**
+	 * Writes all file attachments of the message (recursing into attached
+	 * messages) into the given directory using a bounded pool of worker threads.
+	 * The path of each written file is printed, in attachment order.
+	 * 
+	 * @return false if any attachment could not be written
+	 */
+	protected static boolean extractAttachments(Message msg, final File dir) {
+		Map<String, FileAttachment> files = new LinkedHashMap<String, FileAttachment>();
+		collectAttachments(msg, "", files);
+		
+		if(files.isEmpty())
+			return true;
+		
+		int threads = Math.min(files.size(), Runtime.getRuntime().availableProcessors());
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		
+		// the container is shared by all attachments of the message
+		final Object lock = msg;
+		
+		List<Future<File>> results = new ArrayList<Future<File>>();
+		for(final Map.Entry<String, FileAttachment> e : files.entrySet())
+		{
+			results.add(pool.submit(new Callable<File>() {
+				public File call() throws IOException {
+					File target = new File(dir, e.getKey());
+					OutputStream out = new FileOutputStream(target);
+					try
+					{
+						writeAttachment(e.getValue(), out, lock);
+					}
+					finally
+					{
+						out.close();
+					}
+					return target;
+				}
+			}));
+		}
+		pool.shutdown();
+		
+		boolean success = true;
+		for(Future<File> f : results)
+		{
+			try
+			{
+				System.out.println(f.get().getPath());
+			}
+			catch (ExecutionException | InterruptedException e)
+			{
+				System.err.println("Attachment could not be written: " + e.getCause());
+				success = false;
+			}
+		}
+		
+		return success;
+	}
+	
+	/**
+	 * Opens the attachment store for -x with --dedup.
+	 */
+	protected static AttachmentStore openAttachmentStore(File dir) {
+		try
+		{
+			return new AttachmentStore(dir);
+		}
+		catch (IOException e)
+		{
+			System.err.print(e.getMessage());
+			System.exit(1);
+			return null;
+		}
+	}
+	
+	/**
+	 * Writes all file attachments of the message (recursing into attached
+	 * messages) into a deduplicating store and prints one JSON record for
+	 * the message that references the stored content by digest.
+	 * 
+	 * @return false if any attachment could not be written
+	 */
+	protected static boolean storeAttachments(Message msg, String path, final AttachmentStore store) {
+		Map<String, FileAttachment> files = new LinkedHashMap<String, FileAttachment>();
+		collectAttachments(msg, "", files);
+		
+		int threads = Math.max(1, Math.min(files.size(), Runtime.getRuntime().availableProcessors()));
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		
+		// the container is shared by all attachments of the message
+		final Object lock = msg;
+		
+		List<Future<String>> results = new ArrayList<Future<String>>();
+		for(final FileAttachment fa : files.values())
+		{
+			results.add(pool.submit(new Callable<String>() {
+				public String call() throws IOException {
+					return store.store(fa, lock);
+				}
+			}));
+		}
+		pool.shutdown();
+		
+		boolean success = true;
+		List<Map<String, Object>> atts = new ArrayList<Map<String, Object>>();
+		int i = 0;
+		for(Map.Entry<String, FileAttachment> e : files.entrySet())
+		{
+			Map<String, Object> info = new LinkedHashMap<String, Object>();
+			info.put("name", e.getKey());
+			info.put("size", e.getValue().getSize());
+			try
+			{
+				String digest = results.get(i).get();
+				info.put("sha256", digest);
+				info.put("path", store.getFile(digest).getPath());
+			}
+			catch (ExecutionException | InterruptedException ex)
+			{
+				info.put("error", "Attachment could not be written: " + ex.getCause());
+				success = false;
+			}
+			atts.add(info);
+			i++;
+		}
+		
+		Map<String, Object> data = new LinkedHashMap<String, Object>();
+		data.put("file", path);
+		data.put("attachments", atts);
+		printRecord(data);
+		
+		return success;
+	}
+	
+	/**
+	 * Prints a compact JSON record as one line.
+	 */
+	protected static void printRecord(Map<String, Object> data) {
+		try
+		{
+			Writer out = stdoutWriter();
+			new JsonWriter(out, false).value(data);
+			out.write('\n');
+			out.flush();
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Collects the file attachments of a message and its attached messages.
+	 * The file names are prefixed with the attachment index (e.g. 2_0_ for the
+	 * first attachment of the message attached as third attachment) so they are unique.
+	 */
+	protected static void collectAttachments(Message msg, String prefix, Map<String, FileAttachment> files) {
+		List<Attachment> atts = msg.getAttachments();
+		for(int i = 0; i < atts.size(); i++)
+		{
+			Attachment a = atts.get(i);
+			String index = prefix + i + "_";
+			
+			if(a instanceof FileAttachment)
+			{
+				FileAttachment fa = (FileAttachment) a;
+				String name = fa.getLongFilename() != null ? fa.getLongFilename() : fa.getFilename();
+				if(name == null)
+					name = "attachment";
+				
+				// never allow the attachment to escape the target directory
+				name = new File(name.replace('\\', '/')).getName().replaceAll("[:*?\"<>|]", "_");
+				files.put(index + name, fa);
+			}
+			else if(a instanceof MsgAttachment && ((MsgAttachment) a).getMessage() != null)
+			{
+				collectAttachments(((MsgAttachment) a).getMessage(), index, files);
+			}
+		}
+	}
+	
+	/**
+	 * Keeps stdout open when a wrapping stream (e.g. the BASE64
+	 * encoder, which has to be closed to write its padding) is closed.
+	 */
+	protected static class NonClosingOutputStream extends FilterOutputStream {
+		
+		public NonClosingOutputStream(OutputStream out) {
+			super(out);
+		}
+		
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+		}
+		
+		@Override
+		public void close() throws IOException {
+			flush();
+		}
+	}
+	
+	/**
+	 * Counts the bytes written through it, e.g. for the JFR events.
+	 */
+	protected static class CountingOutputStream extends FilterOutputStream {
+		
+		private long count = 0;
+		
+		public CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+		
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+		
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+		
+		public long getCount() {
+			return count;
+		}
+	}
+	
 	protected static void help() {
 		System.err.print("Msg Parser CLI\n(C)2015 KOLOLA Limited www.kolola.net\nBased on the msgparser library from http://auxilii.com/msgparser/\nLicensed under GPL 3.0\n\n");
 		
@@ -0,0 +1,155 @@
+package net.kolola.msgparsercli;
+
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.auxilii.msgparser.*;
+
+/**
+ * Walks a directory tree and parses all .msg files in it on a
+ * work-stealing pool with one worker per processor. Every directory
+ * becomes a task that forks one task per subdirectory and per file,
+ * so idle workers pick up the remaining work of busy ones.
+ * <br /><br />
+ * One JSON record (the same as in batch mode) is printed per file,
+ * in no particular order, encoded like the writer given to the
+ * constructor (UTF-8 for the CLI). Files or directories that cannot be read
+ * produce a record with an "error" field, the run continues.
+ */
+public class MsgParseCrawler {
+
+	protected final MsgParser msgp;
+	protected final Writer out;
+	protected final ForkJoinPool pool;
+
+	/**
+	 * @param out Receives the records, workers synchronize on it
+	 */
+	public MsgParseCrawler(MsgParser msgp, Writer out) {
+		this.msgp = msgp;
+		this.out = out;
+		this.pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Parses all .msg files below the given directory and returns when all are done.
+	 */
+	public void crawl(Path root) {
+		pool.invoke(new DirectoryTask(root));
+		try
+		{
+			synchronized(out)
+			{
+				out.flush();
+			}
+		}
+		catch (IOException e)
+		{
+			// stdout is gone, nobody to tell
+		}
+	}
+
+	/**
+	 * Prints one record as a single line. The record is serialised
+	 * before taking the lock so that workers do not wait on each other.
+	 */
+	protected void print(Map<String, Object> record) {
+		StringWriter line = new StringWriter();
+		try
+		{
+			new JsonWriter(line, false).value(record);
+		}
+		catch (IOException e)
+		{
+			// cannot happen with a StringWriter
+		}
+		
+		try
+		{
+			// each line is flushed, like in batch mode
+			synchronized(out)
+			{
+				out.write(line.toString());
+				out.write('\n');
+				out.flush();
+			}
+		}
+		catch (IOException e)
+		{
+			// stdout is gone, nobody to tell
+		}
+	}
+
+	protected static boolean isMsgFile(Path path) {
+		return path.getFileName().toString().toLowerCase().endsWith(".msg");
+	}
+
+	/**
+	 * Lists one directory and processes its entries. Symbolic links to
+	 * directories are not followed to avoid cycles.
+	 */
+	protected class DirectoryTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		protected final Path dir;
+
+		public DirectoryTask(Path dir) {
+			this.dir = dir;
+		}
+
+		protected void compute() {
+			List<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
+
+			try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir))
+			{
+				for(Path entry : entries)
+				{
+					if(Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS))
+						tasks.add(new DirectoryTask(entry));
+					else if(isMsgFile(entry) && Files.isRegularFile(entry))
+						tasks.add(new FileTask(entry));
+				}
+			}
+			catch (IOException | RuntimeException e)
+			{
+				Map<String, Object> data = new LinkedHashMap<String, Object>();
+				data.put("file", dir.toString());
+				data.put("error", "Directory could not be read: " + e);
+				print(data);
+			}
+
+			invokeAll(tasks);
+		}
+	}
+
+	/**
+	 * Parses a single file and prints its record.
+	 */
+	protected class FileTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		protected final Path file;
+
+		public FileTask(Path file) {
+			this.file = file;
+		}
+
+		protected void compute() {
+			print(MsgParseCLI.getRecord(msgp, file.toString()));
+		}
+	}
+}
@@ -0,0 +1,356 @@
+package net.kolola.msgparsercli;
+
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.auxilii.msgparser.*;
+import com.auxilii.msgparser.attachment.FileAttachment;
+
+/**
+ * Keeps a warm JVM around and serves parse requests over a unix domain
+ * socket (requires Java 16 or later). Each connection carries exactly one
+ * request line:
+ *
+ * <pre>
+ * info &lt;path&gt;
+ * body &lt;path&gt;
+ * attachment &lt;num&gt; &lt;path&gt;
+ * raw &lt;num&gt; &lt;path&gt;
+ * </pre>
+ *
+ * The response starts with a status line, either "OK" or "ERROR &lt;message&gt;",
+ * followed by the same output the CLI produces for -i, -b, -a and -a -r.
+ * The connection is closed after the response. "OK" is only sent once the
+ * output has been produced or, for attachments, the data could be opened;
+ * if reading an attachment fails after that, the connection is closed
+ * without a further status line.
+ * <br /><br />
+ * The socket can only be used by the user running the daemon. An existing
+ * file at the socket path is only replaced if it is a socket.
+ */
+public class MsgParseDaemon {
+
+	protected final MsgParser msgp;
+	protected final Path socketPath;
+	protected final ExecutorService pool;
+	protected ParseCache cache = null;
+	protected MessageCache messages = null;
+
+	public MsgParseDaemon(MsgParser msgp, Path socketPath) {
+		this.msgp = msgp;
+		this.socketPath = socketPath;
+		this.pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Answers info and body requests from the given cache if possible.
+	 * 
+	 * @param cache The cache or null to always parse
+	 */
+	public void setCache(ParseCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * Keeps parsed messages in memory, so that e.g. requesting the info and
+	 * then every attachment of a file parses it only once.
+	 * 
+	 * @param messages The cache or null to parse every request
+	 */
+	public void setMessageCache(MessageCache messages) {
+		this.messages = messages;
+	}
+
+	/**
+	 * Accepts connections until the process is terminated. The socket is
+	 * only accessible by the owner of the process, as anyone connected can
+	 * have the daemon read any file it can read.
+	 * 
+	 * @throws IOException if the socket cannot be created, e.g. because
+	 *  its path exists and is not a socket
+	 */
+	public void run() throws IOException {
+		// only a stale socket of an earlier run may be replaced
+		if(Files.exists(socketPath, LinkOption.NOFOLLOW_LINKS))
+		{
+			if(!isSocket(socketPath))
+				throw new IOException(socketPath + " exists and is not a socket");
+			Files.delete(socketPath);
+		}
+
+		ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+		bindPrivate(server);
+		socketPath.toFile().deleteOnExit();
+
+		while(true)
+		{
+			final SocketChannel client = server.accept();
+			pool.execute(new Runnable() {
+				public void run() {
+					handle(client);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Binds the server to the socket path with owner-only permissions. The
+	 * socket is created in a private directory and moved into place once
+	 * its permissions are set, so that nobody can connect in between.
+	 */
+	protected void bindPrivate(ServerSocketChannel server) throws IOException {
+		if(!socketPath.getFileSystem().supportedFileAttributeViews().contains("posix"))
+		{
+			server.bind(UnixDomainSocketAddress.of(socketPath));
+			return;
+		}
+
+		Path parent = socketPath.toAbsolutePath().getParent();
+		Path dir = Files.createTempDirectory(parent, ".msgparse", PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+		try
+		{
+			Path tmp = dir.resolve("s");
+			server.bind(UnixDomainSocketAddress.of(tmp));
+			Files.setPosixFilePermissions(tmp, PosixFilePermissions.fromString("rw-------"));
+			Files.move(tmp, socketPath, StandardCopyOption.ATOMIC_MOVE);
+		}
+		finally
+		{
+			Files.deleteIfExists(dir.resolve("s"));
+			Files.delete(dir);
+		}
+	}
+
+	/**
+	 * Checks the file type without following links.
+	 */
+	protected static boolean isSocket(Path path) throws IOException {
+		try
+		{
+			int mode = (Integer) Files.getAttribute(path, "unix:mode", LinkOption.NOFOLLOW_LINKS);
+			return (mode & 0170000) == 0140000;
+		}
+		catch (UnsupportedOperationException | IllegalArgumentException e)
+		{
+			// no unix attributes, a socket is at least neither a file, a directory nor a link
+			return Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).isOther();
+		}
+	}
+
+	/**
+	 * Reads the request line from the client and writes the response.
+	 */
+	protected void handle(SocketChannel client) {
+		try
+		{
+			BufferedReader in = new BufferedReader(new InputStreamReader(Channels.newInputStream(client), StandardCharsets.UTF_8));
+			// counts buffered bytes too, i.e. whether the status has been written
+			MsgParseCLI.CountingOutputStream out = new MsgParseCLI.CountingOutputStream(new BufferedOutputStream(Channels.newOutputStream(client), 65536));
+
+			String request = in.readLine();
+			String error = null;
+			try
+			{
+				respond(request, out);
+			}
+			catch (IllegalArgumentException e)
+			{
+				error = e.getMessage();
+			}
+			catch (RuntimeException e)
+			{
+				error = "File could not be processed: " + e;
+			}
+
+			if(error != null)
+			{
+				// once "OK" has been sent, a second status line would be taken
+				// for data; closing the connection is all we can do
+				if(out.getCount() > 0)
+					return;
+				out.write(("ERROR " + error + "\n").getBytes(StandardCharsets.UTF_8));
+			}
+			out.flush();
+		}
+		catch (IOException e)
+		{
+			// the client has gone away, nothing we can do
+		}
+		finally
+		{
+			try
+			{
+				client.close();
+			}
+			catch (IOException e)
+			{
+				// ignore
+			}
+		}
+	}
+
+	/**
+	 * Parses the requested file and writes the output of the requested operation.
+	 *
+	 * @throws IllegalArgumentException if the request is invalid or the file cannot be parsed
+	 */
+	protected void respond(String request, OutputStream out) throws IOException {
+		if(request == null || request.trim().length() == 0)
+			throw new IllegalArgumentException("Empty request");
+
+		String[] parts = request.trim().split(" ", 2);
+		String op = parts[0];
+		String arg = parts.length > 1 ? parts[1] : "";
+
+		int anum = -1;
+		if(op.equals("attachment") || op.equals("raw"))
+		{
+			String[] a = arg.split(" ", 2);
+			try
+			{
+				anum = Integer.parseInt(a[0]);
+			}
+			catch (NumberFormatException e)
+			{
+				throw new IllegalArgumentException("Invalid attachment number " + a[0]);
+			}
+			arg = a.length > 1 ? a[1] : "";
+		}
+		else if(!op.equals("info") && !op.equals("body"))
+		{
+			throw new IllegalArgumentException("Unknown operation " + op);
+		}
+
+		if(cache != null && (op.equals("info") || op.equals("body")))
+		{
+			byte[] output;
+			try
+			{
+				output = MsgParseCLI.getOutput(msgp, new File(arg), op, cache);
+			}
+			catch (UnsupportedOperationException | IOException e)
+			{
+				throw new IllegalArgumentException("File does not exist or is not a valid msg file");
+			}
+			out.write("OK\n".getBytes(StandardCharsets.UTF_8));
+			out.write(output);
+			return;
+		}
+
+		Message msg;
+		try
+		{
+			msg = open(new File(arg));
+		}
+		catch (UnsupportedOperationException | IOException e)
+		{
+			throw new IllegalArgumentException("File does not exist or is not a valid msg file");
+		}
+
+		try
+		{
+			// cached messages may be used by several connections at once, so the
+			// message is locked while it reads from the .msg file, but not while
+			// the response is written
+			if(op.equals("info"))
+			{
+				Map<String, Object> info;
+				synchronized(msg)
+				{
+					info = MsgParseCLI.getInfo(msg);
+					// the RTF body may have been converted just now
+					if(messages != null)
+						messages.updateSize(msg);
+				}
+				out.write("OK\n".getBytes(StandardCharsets.UTF_8));
+				Writer w = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+				new JsonWriter(w, true).value(info);
+				w.flush();
+			}
+			else if(op.equals("body"))
+			{
+				String body;
+				synchronized(msg)
+				{
+					body = String.valueOf(msg.getConvertedBodyHTML());
+					// the RTF body may have been converted just now
+					if(messages != null)
+						messages.updateSize(msg);
+				}
+				out.write("OK\n".getBytes(StandardCharsets.UTF_8));
+				out.write(body.getBytes(StandardCharsets.UTF_8));
+			}
+			else
+			{
+				if(anum < 0 || anum >= msg.getAttachments().size())
+					throw new IllegalArgumentException("Attachment " + anum + " does not exist");
+
+				// the status has to be known before the attachment is streamed
+				if(!(msg.getAttachments().get(anum) instanceof FileAttachment))
+					throw new IllegalArgumentException("Attachment " + anum + " is a message - That's not implemented yet :(");
+
+				InputStream data;
+				try
+				{
+					synchronized(msg)
+					{
+						data = ((FileAttachment) msg.getAttachments().get(anum)).getDataStream();
+					}
+				}
+				catch (IOException e)
+				{
+					// a failure of the .msg file, not of the connection
+					throw new IllegalArgumentException("Attachment " + anum + " could not be read: " + e.getMessage());
+				}
+				out.write("OK\n".getBytes(StandardCharsets.UTF_8));
+				MsgParseCLI.printAttachment(data, op.equals("raw"), out, msg);
+			}
+		}
+		finally
+		{
+			done(msg);
+		}
+	}
+
+	/**
+	 * Parses the file or takes it from the message cache.
+	 */
+	protected Message open(File file) throws IOException, UnsupportedOperationException {
+		if(messages != null)
+			return messages.acquire(file);
+		return msgp.parseMsg(file);
+	}
+
+	/**
+	 * Closes a message from {@link #open(File)} or hands it back to the cache.
+	 */
+	protected void done(Message msg) throws IOException {
+		if(messages != null)
+			messages.release(msg);
+		else
+			msg.close();
+	}
+}
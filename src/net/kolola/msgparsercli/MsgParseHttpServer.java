@@ -0,0 +1,319 @@
+package net.kolola.msgparsercli;
+
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.auxilii.msgparser.*;
+import com.auxilii.msgparser.attachment.FileAttachment;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local HTTP service (bound to the loopback interface) that exposes the
+ * operations of the CLI:
+ *
+ * <pre>
+ * /info?file=&lt;path&gt;                        (-i)
+ * /body?file=&lt;path&gt;                        (-b)
+ * /attachment?file=&lt;path&gt;&amp;num=&lt;num&gt;[&amp;raw=1]  (-a, -a -r)
+ * </pre>
+ *
+ * Instead of passing a path, the .msg file can be uploaded as the body of
+ * a POST request. Attachments are streamed as chunked responses. Requests
+ * are handled on virtual threads when the JVM supports them (Java 21+),
+ * otherwise on a cached thread pool.
+ * <br /><br />
+ * As the service opens any path it is given, requests are only answered
+ * if their Host header names the loopback interface (localhost, 127.0.0.1
+ * or [::1]) and the bound port. Otherwise a web page could read local
+ * files through the browser by rebinding its own host name to 127.0.0.1.
+ */
+public class MsgParseHttpServer implements HttpHandler {
+
+	protected final MsgParser msgp;
+	protected final HttpServer server;
+	protected ParseCache cache = null;
+	protected MessageCache messages = null;
+
+	public MsgParseHttpServer(MsgParser msgp, int port) throws IOException {
+		this.msgp = msgp;
+		this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		this.server.createContext("/", this);
+		this.server.setExecutor(createExecutor());
+	}
+
+	/**
+	 * Answers info and body requests for files given by path from the
+	 * given cache if possible.
+	 * 
+	 * @param cache The cache or null to always parse
+	 */
+	public void setCache(ParseCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * Keeps messages given by path in memory, so that e.g. requesting the
+	 * info and then every attachment of a file parses it only once.
+	 * 
+	 * @param messages The cache or null to parse every request
+	 */
+	public void setMessageCache(MessageCache messages) {
+		this.messages = messages;
+	}
+
+	/**
+	 * Starts serving requests in the background.
+	 */
+	public void start() {
+		server.start();
+	}
+
+	/**
+	 * Uses one virtual thread per request if available.
+	 */
+	protected static ExecutorService createExecutor() {
+		try
+		{
+			Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) m.invoke(null);
+		}
+		catch (Exception e)
+		{
+			return Executors.newCachedThreadPool();
+		}
+	}
+
+	public void handle(HttpExchange exchange) throws IOException {
+		try
+		{
+			if(!isLocalHost(exchange.getRequestHeaders().getFirst("Host")))
+			{
+				sendError(exchange, 403, "Invalid Host header");
+				return;
+			}
+
+			Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+			String op = exchange.getRequestURI().getPath();
+
+			if(!op.equals("/info") && !op.equals("/body") && !op.equals("/attachment"))
+			{
+				sendError(exchange, 404, "Unknown operation " + op);
+				return;
+			}
+
+			if(cache != null && !op.equals("/attachment") && !exchange.getRequestMethod().equals("POST") && params.containsKey("file"))
+			{
+				byte[] output;
+				try
+				{
+					output = MsgParseCLI.getOutput(msgp, new File(params.get("file")), op.substring(1), cache);
+				}
+				catch (UnsupportedOperationException | IOException e)
+				{
+					sendError(exchange, 400, "File does not exist or is not a valid msg file");
+					return;
+				}
+				send(exchange, op.equals("/info") ? "application/json; charset=utf-8" : "text/html; charset=utf-8", output);
+				return;
+			}
+
+			Message msg;
+			// uploaded messages are never shared through the message cache
+			boolean shared = false;
+			try
+			{
+				if(exchange.getRequestMethod().equals("POST"))
+				{
+					msg = msgp.parseMsg(exchange.getRequestBody(), false);
+				}
+				else if(params.containsKey("file") && messages != null)
+				{
+					msg = messages.acquire(new File(params.get("file")));
+					shared = true;
+				}
+				else if(params.containsKey("file"))
+				{
+					msg = msgp.parseMsg(new File(params.get("file")));
+				}
+				else
+				{
+					sendError(exchange, 400, "Specify a msg file with the file parameter or upload it with POST");
+					return;
+				}
+			}
+			catch (UnsupportedOperationException | IOException e)
+			{
+				sendError(exchange, 400, "File does not exist or is not a valid msg file");
+				return;
+			}
+
+			try
+			{
+				// cached messages may be used by several requests at once, so the
+				// message is locked while it reads from the .msg file, but not
+				// while the response is written
+				if(op.equals("/info"))
+				{
+					Map<String, Object> info;
+					synchronized(msg)
+					{
+						info = MsgParseCLI.getInfo(msg);
+						// the RTF body may have been converted just now
+						if(shared)
+							messages.updateSize(msg);
+					}
+					exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+					exchange.sendResponseHeaders(200, 0);
+					Writer out = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8), 65536);
+					new JsonWriter(out, true).value(info);
+					out.close();
+				}
+				else if(op.equals("/body"))
+				{
+					String body;
+					synchronized(msg)
+					{
+						body = String.valueOf(msg.getConvertedBodyHTML());
+						// the RTF body may have been converted just now
+						if(shared)
+							messages.updateSize(msg);
+					}
+					send(exchange, "text/html; charset=utf-8", body);
+				}
+				else
+				{
+					sendAttachment(exchange, msg, params);
+				}
+			}
+			finally
+			{
+				if(shared)
+					messages.release(msg);
+				else
+					msg.close();
+			}
+		}
+		catch (RuntimeException e)
+		{
+			sendError(exchange, 500, "File could not be processed: " + e);
+		}
+		finally
+		{
+			exchange.close();
+		}
+	}
+
+	protected void sendAttachment(HttpExchange exchange, Message msg, Map<String, String> params) throws IOException {
+		int anum;
+		try
+		{
+			anum = Integer.parseInt(params.get("num"));
+		}
+		catch (NumberFormatException e)
+		{
+			sendError(exchange, 400, "Invalid attachment number " + params.get("num"));
+			return;
+		}
+
+		if(anum < 0 || anum >= msg.getAttachments().size())
+		{
+			sendError(exchange, 404, "Attachment " + anum + " does not exist");
+			return;
+		}
+		if(!(msg.getAttachments().get(anum) instanceof FileAttachment))
+		{
+			sendError(exchange, 404, "Attachment " + anum + " is a message - That's not implemented yet :(");
+			return;
+		}
+
+		boolean raw = "1".equals(params.get("raw"));
+		exchange.getResponseHeaders().set("Content-Type", raw ? "application/octet-stream" : "text/plain");
+
+		// a length of 0 makes the server use chunked encoding
+		exchange.sendResponseHeaders(200, 0);
+		OutputStream out = exchange.getResponseBody();
+		MsgParseCLI.printAttachment(msg, anum, raw, out, msg);
+		out.close();
+	}
+
+	protected static void send(HttpExchange exchange, String contentType, String body) throws IOException {
+		send(exchange, contentType, body.getBytes(StandardCharsets.UTF_8));
+	}
+
+	protected static void send(HttpExchange exchange, String contentType, byte[] bytes) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", contentType);
+		exchange.sendResponseHeaders(200, bytes.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(bytes);
+		out.close();
+	}
+
+	/**
+	 * Checks that the Host header of a request names the loopback
+	 * interface and the port the server is bound to.
+	 * 
+	 * @param host The header or null if there is none
+	 */
+	protected boolean isLocalHost(String host) {
+		if(host == null)
+			return false;
+
+		int port = server.getAddress().getPort();
+		String name = host.trim().toLowerCase();
+		int colon = name.lastIndexOf(':');
+		if(colon > name.lastIndexOf(']'))
+		{
+			if(!name.substring(colon + 1).equals(String.valueOf(port)))
+				return false;
+			name = name.substring(0, colon);
+		}
+		else if(port != 80)
+		{
+			return false;
+		}
+
+		return name.equals("localhost") || name.equals("127.0.0.1") || name.equals("[::1]");
+	}
+
+	protected static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+		byte[] bytes = (message + "\n").getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(bytes);
+		out.close();
+	}
+
+	protected static Map<String, String> parseQuery(String query) throws UnsupportedEncodingException {
+		Map<String, String> params = new HashMap<String, String>();
+		if(query == null)
+			return params;
+
+		for(String pair : query.split("&"))
+		{
+			int eq = pair.indexOf('=');
+			if(eq < 0)
+				params.put(URLDecoder.decode(pair, "UTF-8"), "");
+			else
+				params.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"), URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+		}
+		return params;
+	}
+}
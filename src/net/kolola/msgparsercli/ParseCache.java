@@ -0,0 +1,184 @@
+package net.kolola.msgparsercli;
+
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Content-addressed cache for rendered parse results (the output of
+ * -i and -b). Entries are stored in a directory under the SHA-256 hash
+ * of the .msg file plus the version and kind of output, so the same bytes
+ * are only parsed once, whatever their path. Bumping the version whenever
+ * the rendered output changes keeps stale entries from being served; they
+ * are evicted like any other entry that is no longer used.
+ * <br /><br />
+ * The total size of the directory is capped; when it is exceeded the
+ * least recently used entries are deleted. The last access time is
+ * tracked through the modification time of the entry files, so the
+ * cache can be shared between processes.
+ */
+public class ParseCache {
+
+	protected static final Logger logger = Logger.getLogger(ParseCache.class.getName());
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	protected final File dir;
+	protected final long maxBytes;
+	protected final String version;
+
+	/**
+	 * @param dir The cache directory, it is created if necessary.
+	 * @param maxBytes The maximum total size of all entries.
+	 * @param version The version of the cached output, entries of other
+	 *  versions are ignored. It may contain letters, digits and dashes,
+	 *  e.g. to tell the output of different settings apart.
+	 */
+	public ParseCache(File dir, long maxBytes, String version) throws IOException {
+		if(!dir.isDirectory() && !dir.mkdirs())
+			throw new IOException("Directory " + dir.getPath() + " could not be created");
+
+		this.dir = dir;
+		this.maxBytes = maxBytes;
+		this.version = version;
+	}
+
+	/**
+	 * Computes the content hash of a file, which is the first part
+	 * of the cache key for everything derived from it.
+	 */
+	public String hash(File file) throws IOException {
+		MessageDigest md;
+		try
+		{
+			md = MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new IllegalStateException(e);
+		}
+
+		InputStream in = new FileInputStream(file);
+		try
+		{
+			byte[] buffer = new byte[65536];
+			int n;
+			while((n = in.read(buffer)) > 0)
+				md.update(buffer, 0, n);
+		}
+		finally
+		{
+			in.close();
+		}
+
+		byte[] digest = md.digest();
+		char[] hex = new char[digest.length * 2];
+		for(int i = 0; i < digest.length; i++)
+		{
+			hex[i * 2] = HEX[(digest[i] >> 4) & 0xf];
+			hex[i * 2 + 1] = HEX[digest[i] & 0xf];
+		}
+		return new String(hex);
+	}
+
+	/**
+	 * @param hash The content hash from {@link #hash(File)}
+	 * @param kind The kind of output, e.g. "info"
+	 * @return The cached content or null if there is none.
+	 */
+	public byte[] get(String hash, String kind) {
+		File entry = entry(hash, kind);
+		try
+		{
+			byte[] content = Files.readAllBytes(entry.toPath());
+			entry.setLastModified(System.currentTimeMillis());
+			return content;
+		}
+		catch (IOException e)
+		{
+			// not cached (or evicted concurrently)
+			return null;
+		}
+	}
+
+	/**
+	 * Stores an entry and evicts old ones if the cache has become too big.
+	 * Failures are logged, a cache must never break the actual operation.
+	 */
+	public void put(String hash, String kind, byte[] content) {
+		File entry = entry(hash, kind);
+		try
+		{
+			// write to a temporary file first, so readers never see partial entries
+			File tmp = File.createTempFile(entry.getName(), ".tmp", dir);
+			Files.write(tmp.toPath(), content);
+			Files.move(tmp.toPath(), entry.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (IOException e)
+		{
+			logger.log(Level.WARNING, "Could not write cache entry " + entry, e);
+			return;
+		}
+
+		evict();
+	}
+
+	/**
+	 * Deletes the least recently used entries until the total size is
+	 * below the limit.
+	 */
+	protected synchronized void evict() {
+		File[] entries = dir.listFiles();
+		if(entries == null)
+			return;
+
+		long total = 0;
+		final long[] modified = new long[entries.length];
+		Integer[] order = new Integer[entries.length];
+		for(int i = 0; i < entries.length; i++)
+		{
+			// temporary files of running writers are never evicted
+			if(entries[i].getName().endsWith(".tmp"))
+			{
+				modified[i] = Long.MAX_VALUE;
+				order[i] = i;
+				continue;
+			}
+			total += entries[i].length();
+			modified[i] = entries[i].lastModified();
+			order[i] = i;
+		}
+		if(total <= maxBytes)
+			return;
+
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return Long.compare(modified[a], modified[b]);
+			}
+		});
+
+		for(int i = 0; i < order.length && total > maxBytes; i++)
+		{
+			File f = entries[order[i]];
+			if(modified[order[i]] == Long.MAX_VALUE)
+				break;
+			long size = f.length();
+			if(f.delete())
+				total -= size;
+		}
+	}
+
+	protected File entry(String hash, String kind) {
+		return new File(dir, hash + ".v" + version + "." + kind);
+	}
+}
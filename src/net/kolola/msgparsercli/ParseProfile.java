@@ -0,0 +1,139 @@
+package net.kolola.msgparsercli;
+
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.auxilii.msgparser.*;
+import com.auxilii.msgparser.attachment.Attachment;
+import com.auxilii.msgparser.attachment.FileAttachment;
+import com.auxilii.msgparser.attachment.MsgAttachment;
+
+/**
+ * Profile of the processing of one file for --stats: wall time per
+ * phase, bytes read per property stream, the number of streams read,
+ * the bytes held by attachments and, where the JVM supports it, the
+ * bytes allocated by the processing thread.
+ * <br /><br />
+ * Create one per file on the thread that processes it, parse with
+ * {@link #getOptions()}, pass the message to {@link #setAttachmentBytes(Message)}
+ * and call {@link #print(String, PrintStream)} when the output has been written.
+ */
+public class ParseProfile {
+
+	protected final ParseStats stats = new ParseStats();
+	protected final ParseOptions options = new ParseOptions();
+	protected final long start;
+	protected final long allocatedBefore;
+	protected long attachmentBytes = 0;
+
+	public ParseProfile() {
+		options.setStats(stats);
+		allocatedBefore = allocatedBytes();
+		start = System.nanoTime();
+	}
+
+	/**
+	 * @return Options that make the parser fill this profile.
+	 */
+	public ParseOptions getOptions() {
+		return options;
+	}
+
+	/**
+	 * Adds time spent writing the output.
+	 */
+	public void addOutput(long nanos) {
+		stats.addPhase("output", nanos);
+	}
+
+	/**
+	 * Records the bytes held by the attachments of the parsed message.
+	 */
+	public void setAttachmentBytes(Message msg) {
+		attachmentBytes = attachmentBytes(msg);
+	}
+
+	/**
+	 * Prints the profile as one JSON line.
+	 */
+	public void print(String file, PrintStream out) {
+		long wall = System.nanoTime() - start;
+		long allocated = allocatedBytes();
+
+		Map<String, Object> data = new LinkedHashMap<String, Object>();
+		data.put("file", file);
+		data.put("wall_ms", toMillis(wall));
+
+		Map<String, Object> phases = new LinkedHashMap<String, Object>();
+		for(Map.Entry<String, Long> e : stats.getPhaseNanos().entrySet())
+			phases.put(e.getKey(), toMillis(e.getValue()));
+		data.put("phases_ms", phases);
+
+		data.put("stream_bytes", stats.getStreamBytes());
+		data.put("streams_opened", stats.getStreamsOpened());
+		data.put("attachment_bytes", attachmentBytes);
+		if(allocated >= 0 && allocatedBefore >= 0)
+			data.put("allocated_bytes", allocated - allocatedBefore);
+
+		StringWriter line = new StringWriter();
+		try
+		{
+			new JsonWriter(line, false).value(data);
+		}
+		catch (IOException e)
+		{
+			// cannot happen with a StringWriter
+		}
+
+		synchronized(out)
+		{
+			out.println(line.toString());
+		}
+	}
+
+	/**
+	 * Sums up the sizes of all attachments, including those of attached messages.
+	 */
+	protected static long attachmentBytes(Message msg) {
+		long bytes = 0;
+		for(Attachment a : msg.getAttachments())
+		{
+			if(a instanceof FileAttachment)
+				bytes += ((FileAttachment) a).getSize();
+			else if(a instanceof MsgAttachment)
+				bytes += attachmentBytes(((MsgAttachment) a).getMessage());
+		}
+		return bytes;
+	}
+
+	/**
+	 * @return The bytes allocated by the current thread so far
+	 *  or -1 if the JVM cannot tell.
+	 */
+	protected static long allocatedBytes() {
+		try
+		{
+			java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+			if(bean instanceof com.sun.management.ThreadMXBean)
+			{
+				com.sun.management.ThreadMXBean sun = (com.sun.management.ThreadMXBean) bean;
+				if(sun.isThreadAllocatedMemorySupported() && sun.isThreadAllocatedMemoryEnabled())
+					return sun.getThreadAllocatedBytes(Thread.currentThread().getId());
+			}
+		}
+		catch (LinkageError | UnsupportedOperationException e)
+		{
+			// not a HotSpot-like JVM
+		}
+		return -1;
+	}
+
+	private static double toMillis(long nanos) {
+		return Math.round(nanos / 1000.0) / 1000.0;
+	}
+}
@@ -0,0 +1,23 @@
+package net.kolola.msgparsercli;
+
+
+import jdk.jfr.DataAmount;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import com.auxilii.msgparser.jfr.ParseEvent;
+
+/**
+ * JFR event for writing the parse result of one file (-i output).
+ */
+@Name("msgparser.Serialize")
+@Label("Serialize Output")
+public class SerializeEvent extends ParseEvent {
+
+	@Label("Format")
+	public String format;
+
+	@Label("Output Size")
+	@DataAmount
+	public long bytes;
+}
@@ -0,0 +1,95 @@
+/*
+ * msgparser - http://auxilii.com/msgparser
+ * Copyright (C) 2007  Roman Kurmanowytsch
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package com.auxilii.msgparser.rtf;
+
+import junit.framework.TestCase;
+
+/**
+ * Pins the output of {@link StreamingRTF2HTMLConverter} for small
+ * RTF bodies, in particular where it differs from
+ * {@link SimpleRTF2HTMLConverter}.
+ */
+public class StreamingRTF2HTMLConverterTest extends TestCase {
+
+	private static final String PLAIN_START = StreamingRTF2HTMLConverter.PLAIN_START;
+	private static final String PLAIN_END = StreamingRTF2HTMLConverter.PLAIN_END;
+
+	private final StreamingRTF2HTMLConverter converter = new StreamingRTF2HTMLConverter();
+
+	private String convert(String rtf) throws Exception {
+		return converter.rtf2html(rtf);
+	}
+
+	public void testNull() throws Exception {
+		assertNull(convert(null));
+	}
+
+	public void testFromHtmlIsDeEncapsulated() throws Exception {
+		String rtf = "{\\rtf1\\ansi\\ansicpg1252\\fromhtml1 \\deff0{\\fonttbl{\\f0\\fswiss Arial;}}\r\n"
+				+ "{\\*\\htmltag19 <html>}{\\*\\htmltag34 <head>}{\\*\\htmltag41 </head>}{\\*\\htmltag50 <body>}\\htmlrtf {\\htmlrtf0 \r\n"
+				+ "{\\*\\htmltag64 <p>}\\htmlrtf {\\htmlrtf0 Hello world\\htmlrtf\\par}\\htmlrtf0\r\n"
+				+ "{\\*\\htmltag72 </p>}{\\*\\htmltag58 </body>}{\\*\\htmltag27 </html>}}";
+		assertEquals("<html><head></head><body><p>Hello world</p></body></html>", convert(rtf));
+	}
+
+	public void testHtmlRtfBlocksAreSuppressed() throws Exception {
+		String rtf = "{\\rtf1\\ansi\\fromhtml1 {\\*\\htmltag64 <p>}\\htmlrtf RTF only\\htmlrtf0 visible{\\*\\htmltag72 </p>}}";
+		assertEquals("<p>visible</p>", convert(rtf));
+	}
+
+	public void testFromHtmlTextIsNotEscaped() throws Exception {
+		String rtf = "{\\rtf1\\ansi\\fromhtml1 {\\*\\htmltag84 &amp;}a\\par b}";
+		assertEquals("&amp;a\r\nb", convert(rtf));
+	}
+
+	public void testHexUsesAnsiCodePage() throws Exception {
+		assertEquals(PLAIN_START + "\u041f\u0440\u0438" + PLAIN_END, convert("{\\rtf1\\ansi\\ansicpg1251 \\'cf\\'f0\\'e8}"));
+		assertEquals(PLAIN_START + "caf\u00e9" + PLAIN_END, convert("{\\rtf1\\ansi\\ansicpg1252 caf\\'e9}"));
+	}
+
+	public void testHexDecodesDoubleBytePairs() throws Exception {
+		assertEquals(PLAIN_START + "\u3042" + PLAIN_END, convert("{\\rtf1\\ansi\\ansicpg932 \\'82\\'a0}"));
+	}
+
+	public void testUnicodeSkipsFallbackCharacters() throws Exception {
+		assertEquals(PLAIN_START + "\u20ac\u00fc \u20ac" + PLAIN_END, convert("{\\rtf1\\ansi \\uc1\\u8364?\\u252? {\\uc2\\u8364??}}"));
+	}
+
+	public void testPlainTextIsEscaped() throws Exception {
+		assertEquals(PLAIN_START + "a&lt;b &amp; &quot;c&quot;" + PLAIN_END, convert("{\\rtf1\\ansi a<b & \"c\"}"));
+	}
+
+	public void testEveryParIsALineBreak() throws Exception {
+		assertEquals(PLAIN_START + "a<br/>\r\n<br/>\r\nb" + PLAIN_END, convert("{\\rtf1\\ansi a\\par\\par b}"));
+	}
+
+	public void testLinksArePerWord() throws Exception {
+		String html = convert("{\\rtf1\\ansi see http://example.com/a, or https://x.org and mailto:bob@example.com}");
+		assertEquals(PLAIN_START + "see <a href=\"http://example.com/a,\">http://example.com/a,</a>"
+				+ " or <a href=\"https://x.org\">https://x.org</a>"
+				+ " and <a href=\"mailto:bob@example.com\">bob@example.com</a>" + PLAIN_END, html);
+	}
+
+	public void testNoLinkAfterBracket() throws Exception {
+		assertEquals(PLAIN_START + "(http://example.com)" + PLAIN_END, convert("{\\rtf1\\ansi (http://example.com)}"));
+	}
+
+	public void testSkippedDestinations() throws Exception {
+		assertEquals(PLAIN_START + "text" + PLAIN_END, convert("{\\rtf1\\ansi{\\fonttbl{\\f0 Arial;}}{\\colortbl;\\red0\\green0\\blue0;}{\\*\\generator Riched20;}text}"));
+	}
+}